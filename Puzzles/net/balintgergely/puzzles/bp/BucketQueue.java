@@ -0,0 +1,60 @@
+package net.balintgergely.puzzles.bp;
+
+import java.util.Arrays;
+
+/**
+ * A priority queue of int handles with small integer priorities, for Dial's algorithm.
+ * <p>
+ * The priorities never go below the one last polled, and stay less than the span above it,
+ * so a circular array of span buckets, indexed by the priority modulo the span, holds them all.
+ * Adding is a single append, and polling only walks the buckets once per round of the circle.
+ * Handles with the same priority are polled last in, first out.
+ */
+final class BucketQueue {
+	private final int[][] buckets;
+	private final int[] sizes;
+	private int size;
+	private int priority;
+	/**
+	 * @param span One more than the largest difference between a priority added and the last one polled.
+	 */
+	BucketQueue(int span){
+		this.buckets = new int[span][16];
+		this.sizes = new int[span];
+	}
+	boolean isEmpty(){
+		return size == 0;
+	}
+	int size(){
+		return size;
+	}
+	void add(int handle,int priority){
+		if(priority < this.priority || this.priority + buckets.length <= priority){
+			throw new IllegalArgumentException("Priority out of range: " + priority);
+		}
+		int b = priority % buckets.length;
+		if(sizes[b] == buckets[b].length){
+			buckets[b] = Arrays.copyOf(buckets[b], sizes[b] * 2);
+		}
+		buckets[b][sizes[b]++] = handle;
+		size++;
+	}
+	/**
+	 * Removes a handle with the least priority. The queue must not be empty.
+	 */
+	int poll(){
+		int b = priority % buckets.length;
+		while(sizes[b] == 0){
+			priority++;
+			b = b + 1 == buckets.length ? 0 : b + 1;
+		}
+		size--;
+		return buckets[b][--sizes[b]];
+	}
+	/**
+	 * The priority of the handle last polled.
+	 */
+	int priority(){
+		return priority;
+	}
+}
@@ -0,0 +1,163 @@
+package net.balintgergely.puzzles.bp;
+
+import java.util.Arrays;
+
+/**
+ * Uniform cost search from a start state and back from a goal state at the same time, over the packed
+ * states of a {@link LiquidSpace}.
+ * <p>
+ * The backward search follows the pours in reverse, see {@link LiquidSpace#unpourLimit}. Both searches
+ * share the records and the {@link LongIntMap} of the states, each record keeping a cost, a parent,
+ * a move and whether it is settled for both directions. The cheapest path through a state reached
+ * from both sides is kept, and the search stops once the last costs settled on the two sides add up
+ * to at least its cost, as no path through the states settled later can be cheaper. The side with
+ * fewer queued records is expanded next.
+ */
+final class LiquidBidirectionalSearch {
+	static final int FORWARD = 0;
+	static final int BACKWARD = 1;
+	private static final int UNREACHED = Integer.MAX_VALUE;
+	private final LiquidSpace space;
+	private final LongIntMap index = new LongIntMap(1 << 10);
+	private long[] states = new long[1 << 10];
+	private final int[][] parents = new int[2][1 << 10];
+	private final byte[][] moves = new byte[2][1 << 10];
+	private final int[][] costs = new int[2][1 << 10];
+	private final boolean[][] settled = new boolean[2][1 << 10];
+	private int records;
+	private int settledCount;
+	private int meeting = -1;
+	LiquidBidirectionalSearch(LiquidSpace space){
+		if(Byte.MAX_VALUE < space.moves()){
+			throw new IllegalArgumentException("Too many moves: " + space.moves());
+		}
+		this.space = space;
+	}
+	/**
+	 * Searches for the cheapest path from the start to the goal.
+	 * @return The cost of the path, or -1 if the goal is not reachable.
+	 */
+	int run(long start,long goal){
+		BucketQueue[] queues = {new BucketQueue(space.maxCost() + 1), new BucketQueue(space.maxCost() + 1)};
+		int first = reach(start);
+		costs[FORWARD][first] = 0;
+		queues[FORWARD].add(first, 0);
+		int last = reach(goal);
+		costs[BACKWARD][last] = 0;
+		queues[BACKWARD].add(last, 0);
+		int best = UNREACHED;
+		if(first == last){
+			meeting = first;
+			best = 0;
+		}
+		while(!queues[FORWARD].isEmpty() && !queues[BACKWARD].isEmpty()){
+			int side = queues[FORWARD].size() <= queues[BACKWARD].size() ? FORWARD : BACKWARD;
+			BucketQueue queue = queues[side];
+			int record = queue.poll();
+			if(settled[side][record] || costs[side][record] != queue.priority()){
+				continue;
+			}
+			if(best <= (long)queue.priority() + queues[1 - side].priority()){
+				break;
+			}
+			settled[side][record] = true;
+			settledCount++;
+			long state = states[record];
+			for(int move = 0;move < space.moves();move++){
+				if(side == FORWARD){
+					int amount = space.amount(state, move);
+					if(amount != 0){
+						best = relax(queue, side, record, move, space.pour(state, move, amount), amount, best);
+					}
+				}else{
+					int limit = space.unpourLimit(state, move);
+					for(int amount = 1;amount <= limit;amount++){
+						best = relax(queue, side, record, move, space.unpour(state, move, amount), amount, best);
+					}
+				}
+			}
+		}
+		return best == UNREACHED ? -1 : best;
+	}
+	/**
+	 * Reaches the next state from the record on the given side, and checks whether the other side
+	 * has reached it too.
+	 * @return The cost of the cheapest path found so far.
+	 */
+	private int relax(BucketQueue queue,int side,int record,int move,long next,int amount,int best){
+		int cost = costs[side][record] + LiquidSpace.cost(amount);
+		int target = reach(next);
+		if(settled[side][target] || costs[side][target] <= cost){
+			return best;
+		}
+		parents[side][target] = record;
+		moves[side][target] = (byte)move;
+		costs[side][target] = cost;
+		queue.add(target, cost);
+		int other = costs[1 - side][target];
+		if(other != UNREACHED && cost + other < best){
+			meeting = target;
+			return cost + other;
+		}
+		return best;
+	}
+	/**
+	 * Finds the record of the state, or makes one reached from neither side.
+	 */
+	private int reach(long state){
+		int record = index.get(state, -1);
+		if(0 <= record){
+			return record;
+		}
+		if(records == states.length){
+			int length = records * 2;
+			states = Arrays.copyOf(states, length);
+			for(int side = FORWARD;side <= BACKWARD;side++){
+				parents[side] = Arrays.copyOf(parents[side], length);
+				moves[side] = Arrays.copyOf(moves[side], length);
+				costs[side] = Arrays.copyOf(costs[side], length);
+				settled[side] = Arrays.copyOf(settled[side], length);
+			}
+		}
+		states[records] = state;
+		for(int side = FORWARD;side <= BACKWARD;side++){
+			parents[side][records] = -1;
+			costs[side][records] = UNREACHED;
+		}
+		index.put(state, records);
+		return records++;
+	}
+	/**
+	 * The number of states settled, on either side.
+	 */
+	int size(){
+		return settledCount;
+	}
+	/**
+	 * The moves of the path found by the last run, from the start to the goal, across the state
+	 * where the two sides met.
+	 */
+	int[] path(){
+		if(meeting < 0){
+			throw new IllegalStateException("No path found.");
+		}
+		int forward = 0;
+		for(int record = meeting;parents[FORWARD][record] >= 0;record = parents[FORWARD][record]){
+			forward++;
+		}
+		int length = forward;
+		for(int record = meeting;parents[BACKWARD][record] >= 0;record = parents[BACKWARD][record]){
+			length++;
+		}
+		int[] path = new int[length];
+		int i = forward;
+		for(int record = meeting;parents[FORWARD][record] >= 0;record = parents[FORWARD][record]){
+			path[--i] = moves[FORWARD][record];
+		}
+		i = forward;
+		for(int record = meeting;parents[BACKWARD][record] >= 0;record = parents[BACKWARD][record]){
+			path[i++] = moves[BACKWARD][record];
+		}
+		return path;
+	}
+}
@@ -0,0 +1,107 @@
+package net.balintgergely.puzzles.bp;
+
+/**
+ * A dense numbering of the states of a {@link LiquidSpace} which hold a given total of liquid.
+ * <p>
+ * Pours keep the total, so these are all the states a search from one start can reach.
+ * The states are numbered in the order of their amounts read as a mixed radix number, the first
+ * container being the most significant, skipping the ones with a different total. The number of
+ * ways to fill the containers from each one on with each total is tabulated, and the number of the
+ * states before a state is a sum of one table entry per container.
+ */
+final class LiquidIndex {
+	private final int containers;
+	private final int[] capacities;
+	/**
+	 * The total capacity of the containers after each one.
+	 */
+	private final int[] rest;
+	private final int total;
+	/**
+	 * The number of ways to fill the containers from i on with s liquid, at [i * (total + 1) + s].
+	 */
+	private final int[] ways;
+	/**
+	 * The number of ways to fill the containers from i on with s liquid, with less than v in container i,
+	 * at [(i * (total + 1) + s) * (MAX_CAPACITY + 2) + v].
+	 */
+	private final int[] below;
+	LiquidIndex(LiquidSpace space,int total){
+		this.containers = space.containers();
+		this.capacities = new int[containers];
+		for(int i = 0;i < containers;i++){
+			capacities[i] = space.capacity(i);
+		}
+		this.rest = new int[containers];
+		for(int i = containers - 2;0 <= i;i--){
+			rest[i] = rest[i + 1] + capacities[i + 1];
+		}
+		if(total < 0){
+			throw new IllegalArgumentException("Bad total: " + total);
+		}
+		this.total = total;
+		this.ways = new int[(containers + 1) * (total + 1)];
+		this.below = new int[containers * (total + 1) * (LiquidSpace.MAX_CAPACITY + 2)];
+		ways[containers * (total + 1)] = 1;
+		for(int i = containers - 1;0 <= i;i--){
+			for(int s = 0;s <= total;s++){
+				long count = 0;
+				int b = (i * (total + 1) + s) * (LiquidSpace.MAX_CAPACITY + 2);
+				for(int v = 0;v <= capacities[i];v++){
+					below[b + v] = (int)count;
+					if(v <= s){
+						count += ways[(i + 1) * (total + 1) + s - v];
+					}
+					if(Integer.MAX_VALUE < count){
+						throw new IllegalArgumentException("Too many states.");
+					}
+				}
+				below[b + capacities[i] + 1] = (int)count;
+				ways[i * (total + 1) + s] = (int)count;
+			}
+		}
+	}
+	/**
+	 * The total liquid of the states.
+	 */
+	int total(){
+		return total;
+	}
+	/**
+	 * The number of states.
+	 */
+	int size(){
+		return ways[total];
+	}
+	/**
+	 * The number of the state, which must hold the total.
+	 */
+	int index(long state){
+		int index = 0;
+		int remaining = total;
+		for(int i = 0;i < containers;i++){
+			int v = LiquidSpace.get(state, i);
+			index += below[(i * (total + 1) + remaining) * (LiquidSpace.MAX_CAPACITY + 2) + v];
+			remaining -= v;
+		}
+		return index;
+	}
+	/**
+	 * The state with the number.
+	 */
+	long state(int index){
+		long state = 0L;
+		int remaining = total;
+		for(int i = 0;i < containers;i++){
+			int b = (i * (total + 1) + remaining) * (LiquidSpace.MAX_CAPACITY + 2);
+			int v = Math.max(0, remaining - rest[i]);
+			while(below[b + v + 1] <= index){
+				v++;
+			}
+			index -= below[b + v];
+			state |= (long)v << (i * LiquidSpace.BITS);
+			remaining -= v;
+		}
+		return state;
+	}
+}
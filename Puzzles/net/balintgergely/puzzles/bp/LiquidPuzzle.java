@@ -1,17 +1,18 @@
 package net.balintgergely.puzzles.bp;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.PrimitiveIterator;
-import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.function.IntBinaryOperator;
+import java.util.function.LongPredicate;
 import java.util.stream.IntStream;
-import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
 /**
@@ -110,59 +111,57 @@ public class LiquidPuzzle{
 		LEGAL_MOVES_STEAM = Set.of(new IntPair(RT, T1), new IntPair(T1, RT));
 	}
 
-	private record Path(Path prev,State rep,int from,int to,int cost){}
-
-	private static final Comparator<Path> PATH_PRIORITY = Comparator.comparingInt(Path::cost);
-
-	private static Path simpleMove(Path state,IntPair move){
-		int fromIndex = move.a();
-		int toIndex = move.b();
-		int spaceInTarget = CAPACITY.get(toIndex) - state.rep().get(toIndex);
-		int liquidInSource = state.rep().get(fromIndex);
-		int liquidToMove = Math.min(liquidInSource,spaceInTarget);
-		
-		State newRep = state.rep().map((i,v) -> {
-			if(i == fromIndex){
-				v -= liquidToMove;
-			}
-			if(i == toIndex){
-				v += liquidToMove;
-			}
-			return v;
-		});
-
-		return new Path(state,newRep,fromIndex,toIndex,state.cost() + liquidToMove + 2);
+	private static LiquidSpace space(Collection<IntPair> moves){
+		return new LiquidSpace(CAPACITY.stream().toArray(), moves.stream()
+			.sorted(Comparator.comparingInt(IntPair::a).thenComparingInt(IntPair::b))
+			.map(p -> new int[]{p.a(), p.b()})
+			.toArray(int[][]::new));
 	}
 
-	private static Stream<Path> allMoves(Collection<IntPair> moveset,Path s){
-		return moveset.stream().map(p -> simpleMove(s, p));
+	private static long pack(State state){
+		return LiquidSpace.pack(state.array);
 	}
 
-	private static Stream<State> allStates(){
-		Stream<State> cumulative = Stream.of(State.of()).parallel();
-		for(int i : CAPACITY){
-			cumulative = cumulative.flatMap(s -> IntStream.range(0, i + 1).mapToObj(s::append));
+	private static void printPath(LiquidSpace space,LiquidSearch search,int record){
+		int parent = search.parent(record);
+		if(parent >= 0){
+			printPath(space, search, parent);
+			int move = search.move(record);
+			System.out.println(NAMES.get(space.source(move)) + " => " + NAMES.get(space.target(move)));
 		}
-		return cumulative.filter(s -> s.sum() == TOTAL_LIQUID);
+		System.out.println(space.format(search.state(record)));
 	}
-
-	private static void printPath(Path state){
-		if(state.prev() != null){
-			printPath(state.prev());
-			System.out.println(NAMES.get(state.from) + " => " + NAMES.get(state.to));
+	private static void printMoves(LiquidSpace space,long state,int[] moves){
+		System.out.println(space.format(state));
+		for(int move : moves){
+			state = space.pour(state, move, space.amount(state, move));
+			System.out.println(NAMES.get(space.source(move)) + " => " + NAMES.get(space.target(move)));
+			System.out.println(space.format(state));
 		}
-		System.out.println(state.rep());
 	}
-	private static boolean endConditionTest(State state){
-		State s = State.of(12, 6, 6, 3, 5, 0, 4, 4, 6);
-		return s.equals(state);
+	private static void printUnreachable(List<State> states){
+		if(states.isEmpty()){
+			System.out.println("No legal state satisfies the condition.");
+		}else{
+			System.out.println(states.size() + " states satisfy the requirement. Example:");
+			System.out.println(states.get(0));
+			System.out.println("Unfortunately none are reachable.");
+		}
+	}
+	private static boolean endConditionTest(long state){
+		return state == LiquidSpace.pack(12, 6, 6, 3, 5, 0, 4, 4, 6);
 	}
-	public static void main(String[] atgs){
+	public static void main(String[] atgs) throws IOException{
 
 		// Parameters:
 
 		State startState = State.of(12, 6, 6, 3, 5, 0, 4, 4, 6);
 		boolean steamPowered = false;
+		// A single goal state to search for with A* instead of the end condition, or null.
+		State goalState = null;
+		// A file to keep the costs of all states reachable from the start in, to answer the goal from
+		// without searching again, or null.
+		Path tablePath = null;
 
 		//
 		
@@ -185,37 +184,68 @@ public class LiquidPuzzle{
 		}
 		// If none of the states meet the condition, we just explore the state-space.
 		
-		
-		State endState = null;
-
-		Path node = new Path(null, startState, 0, 0, 0);
-
-		HashMap<State,Path> stateMap = new HashMap<>();
-		PriorityQueue<Path> pathQueue = new PriorityQueue<>(PATH_PRIORITY);
-
-		do{
-			if(stateMap.putIfAbsent(node.rep(), node) == null){
-				if(endConditionTest(node.rep())){
-					endState = node.rep();
-					break;
+		LiquidSpace space = space(legalMoves);
+		long start = pack(startState);
+		LongPredicate goal;
+		if(goalState == null){
+			goal = LiquidPuzzle::endConditionTest;
+		}else{
+			long goalPacked = pack(goalState);
+			goal = s -> s == goalPacked;
+		}
+
+		if(tablePath != null){
+			LiquidTable table = LiquidTable.open(tablePath, space, start);
+			int endRecord = table.find(goal);
+			if(endRecord < 0){
+				List<State> states = new ArrayList<>();
+				for(int record = 0;record < table.size();record++){
+					if(table.cost(record) < 0 && goal.test(table.state(record))){
+						states.add(State.of(space.unpack(table.state(record))));
+					}
 				}
-				allMoves(legalMoves,node).forEachOrdered(pathQueue::add);
+				printUnreachable(states);
+			}else{
+				System.out.println("Cost: " + table.cost(endRecord));
+				printMoves(space, start, table.path(endRecord));
 			}
-			node = pathQueue.poll();
-		}while(node != null);
+			return;
+		}
 
-		System.out.println("Explored " + stateMap.size() + " states.");
-		if(endState == null){
-			List<State> states = allStates().filter(s -> !stateMap.containsKey(s)).filter(LiquidPuzzle::endConditionTest).toList();
-			if(states.isEmpty()){
-				System.out.println("No legal state satisfies the condition.");
-			}else{
-				System.out.println(states.size() + " states satisfy the requirement. Example:");
-				System.out.println(states.get(0));
-				System.out.println("Unfortunately none are reachable.");
+		LiquidSearch search = new LiquidSearch(space);
+		int endRecord;
+		if(goalState == null){
+			endRecord = search.run(start, goal);
+		}else{
+			long goalPacked = pack(goalState);
+			endRecord = search.run(start, goalPacked);
+			LiquidSearch plain = new LiquidSearch(space);
+			plain.run(start, goal);
+			LiquidBidirectionalSearch bidirectional = new LiquidBidirectionalSearch(space);
+			int cost = bidirectional.run(start, goalPacked);
+			System.out.println("A* expanded " + search.size() + " states, bidirectional search "
+				+ bidirectional.size() + ", Dijkstra " + plain.size() + ".");
+			if(0 <= cost){
+				System.out.println("Bidirectional search, cost " + cost + ":");
+				printMoves(space, start, bidirectional.path());
+			}
+			if(cost != (endRecord < 0 ? -1 : search.cost(endRecord))){
+				System.err.println("Bidirectional search disagrees with A*!");
+			}
+		}
+
+		System.out.println("Explored " + search.size() + " states.");
+		if(endRecord < 0){
+			List<State> states = new ArrayList<>();
+			for(int record = search.nextUnsettled(0);0 <= record;record = search.nextUnsettled(record + 1)){
+				long state = search.state(record);
+				if(goal.test(state)){
+					states.add(State.of(space.unpack(state)));
+				}
 			}
+			printUnreachable(states);
 		}else{
-			printPath(stateMap.get(endState));
+			printPath(space, search, endRecord);
 		}
 	}
 }
@@ -0,0 +1,145 @@
+package net.balintgergely.puzzles.bp;
+
+import java.util.Arrays;
+import java.util.function.LongPredicate;
+import java.util.function.LongToIntFunction;
+
+/**
+ * Uniform cost search over the packed states of a {@link LiquidSpace}.
+ * <p>
+ * Pours keep the total liquid, so the states a search can reach are numbered densely by
+ * a {@link LiquidIndex}, and the number of a state is its record. The records are kept in flat
+ * primitive arrays: the record the state was poured from, the move and the cost. The settled
+ * records are a bitset, so the states left unsettled are listed by a linear scan of it.
+ * <p>
+ * The cost of a pour is a small integer, so the queue is a {@link BucketQueue} of records.
+ * A record is only queued when it is reached for the first time or at a lower cost than before,
+ * never once settled. Its entries with a higher cost are skipped when polled.
+ * <p>
+ * Searching for a single goal state, the records are queued by their cost plus
+ * {@link LiquidSpace#estimate}, which makes the search A*. The estimate is consistent and changes
+ * by at most the cost of a pour, so the priorities still only grow, by at most twice the cost of a pour.
+ * They are offset by the estimate of the start, so that they start from zero.
+ */
+final class LiquidSearch {
+	private final LiquidSpace space;
+	private LiquidIndex index;
+	private int[] parents;
+	private byte[] moves;
+	private int[] costs;
+	private long[] settled;
+	private int settledCount;
+	LiquidSearch(LiquidSpace space){
+		if(Byte.MAX_VALUE < space.moves()){
+			throw new IllegalArgumentException("Too many moves: " + space.moves());
+		}
+		this.space = space;
+	}
+	/**
+	 * Settles states in order of their cost from the start, until one of them is a goal.
+	 * @return The record of the goal, or -1 if no reachable state is a goal.
+	 */
+	int run(long start,LongPredicate goal){
+		return run(start, goal, state -> 0, space.maxCost() + 1);
+	}
+	/**
+	 * Searches for a single goal state with A*.
+	 * @return The record of the goal, or -1 if it is not reachable.
+	 */
+	int run(long start,long goal){
+		return run(start, state -> state == goal, state -> space.estimate(state, goal), space.maxCost() * 2 + 1);
+	}
+	private int run(long start,LongPredicate goal,LongToIntFunction estimate,int span){
+		index = new LiquidIndex(space, space.sum(start));
+		parents = new int[index.size()];
+		moves = new byte[index.size()];
+		costs = new int[index.size()];
+		settled = new long[(index.size() + Long.SIZE - 1) / Long.SIZE];
+		settledCount = 0;
+		Arrays.fill(costs, Integer.MAX_VALUE);
+		BucketQueue queue = new BucketQueue(span);
+		int offset = estimate.applyAsInt(start);
+		int first = index.index(start);
+		parents[first] = -1;
+		costs[first] = 0;
+		queue.add(first, 0);
+		while(!queue.isEmpty()){
+			int record = queue.poll();
+			if(isSettledRecord(record)){
+				continue;
+			}
+			long state = index.state(record);
+			if(costs[record] + estimate.applyAsInt(state) - offset != queue.priority()){
+				continue;
+			}
+			settled[record / Long.SIZE] |= 1L << record;
+			settledCount++;
+			if(goal.test(state)){
+				return record;
+			}
+			for(int move = 0;move < space.moves();move++){
+				int amount = space.amount(state, move);
+				if(amount == 0){
+					continue;
+				}
+				long next = space.pour(state, move, amount);
+				int cost = costs[record] + LiquidSpace.cost(amount);
+				int target = index.index(next);
+				if(cost < costs[target] && !isSettledRecord(target)){
+					parents[target] = record;
+					moves[target] = (byte)move;
+					costs[target] = cost;
+					queue.add(target, cost + estimate.applyAsInt(next) - offset);
+				}
+			}
+		}
+		return -1;
+	}
+	/**
+	 * The number of settled states, which is the number of states expanded.
+	 */
+	int size(){
+		return settledCount;
+	}
+	boolean isSettled(long state){
+		return space.sum(state) == index.total() && isSettledRecord(index.index(state));
+	}
+	private boolean isSettledRecord(int record){
+		return (settled[record / Long.SIZE] & (1L << record)) != 0;
+	}
+	/**
+	 * The first record from the given one on which is not settled, or -1 if there is none.
+	 * The states of these records hold the same total as the start, but were not reached,
+	 * or not yet when the search stopped.
+	 */
+	int nextUnsettled(int record){
+		int w = record / Long.SIZE;
+		if(settled.length <= w){
+			return -1;
+		}
+		long unsettled = ~settled[w] & (-1L << record);
+		while(unsettled == 0){
+			if(++w == settled.length){
+				return -1;
+			}
+			unsettled = ~settled[w];
+		}
+		int next = w * Long.SIZE + Long.numberOfTrailingZeros(unsettled);
+		return next < index.size() ? next : -1;
+	}
+	long state(int record){
+		return index.state(record);
+	}
+	/**
+	 * The record the state was poured from, or -1 for the start.
+	 */
+	int parent(int record){
+		return parents[record];
+	}
+	int move(int record){
+		return moves[record];
+	}
+	int cost(int record){
+		return costs[record];
+	}
+}
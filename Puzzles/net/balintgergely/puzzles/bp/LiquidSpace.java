@@ -0,0 +1,234 @@
+package net.balintgergely.puzzles.bp;
+
+import java.util.Comparator;
+import java.util.StringJoiner;
+import java.util.stream.IntStream;
+
+/**
+ * The states of a set of containers, each state packed into a single long.
+ * <p>
+ * Container i holds its amount of liquid in bits 4i to 4i+3, so there can be up to 16 containers
+ * of at most 15 units each. A pour moves liquid from one container to another until the source
+ * is empty or the target is full, which is a handful of shifts and subtractions on the packed state.
+ */
+final class LiquidSpace {
+	static final int BITS = 4;
+	static final int MAX_CONTAINERS = Long.SIZE / BITS;
+	static final int MAX_CAPACITY = (1 << BITS) - 1;
+	/**
+	 * Every pour costs this much on top of the liquid it moves.
+	 */
+	static final int POUR_COST = 2;
+	private final int[] capacities;
+	private final long full;
+	private final int[] sources;
+	private final int[] targets;
+	/**
+	 * Containers no two of which a single pour connects, see {@link #estimate}.
+	 */
+	private final boolean[] independent;
+	/**
+	 * The most liquid a single pour can move into or out of each container.
+	 */
+	private final int[] largestPours;
+	/**
+	 * @param capacities The capacity of each container.
+	 * @param moves The allowed pours, each a pair of the source and the target container.
+	 */
+	LiquidSpace(int[] capacities,int[][] moves){
+		if(MAX_CONTAINERS < capacities.length){
+			throw new IllegalArgumentException("Too many containers: " + capacities.length);
+		}
+		for(int capacity : capacities){
+			if(capacity < 0 || MAX_CAPACITY < capacity){
+				throw new IllegalArgumentException("Bad capacity: " + capacity);
+			}
+		}
+		this.capacities = capacities.clone();
+		this.full = pack(capacities);
+		this.sources = new int[moves.length];
+		this.targets = new int[moves.length];
+		for(int m = 0;m < moves.length;m++){
+			sources[m] = moves[m][0];
+			targets[m] = moves[m][1];
+		}
+		this.independent = independentSet();
+		this.largestPours = new int[capacities.length];
+		for(int m = 0;m < moves.length;m++){
+			int largest = Math.min(capacities[sources[m]], capacities[targets[m]]);
+			largestPours[sources[m]] = Math.max(largestPours[sources[m]], largest);
+			largestPours[targets[m]] = Math.max(largestPours[targets[m]], largest);
+		}
+	}
+	/**
+	 * Picks a set of containers no pour connects to each other, greedily from the ones which
+	 * take part in the fewest distinct pairs of containers.
+	 */
+	private boolean[] independentSet(){
+		int n = capacities.length;
+		boolean[][] adjacent = new boolean[n][n];
+		for(int m = 0;m < sources.length;m++){
+			adjacent[sources[m]][targets[m]] = true;
+			adjacent[targets[m]][sources[m]] = true;
+		}
+		int[] degrees = new int[n];
+		for(int i = 0;i < n;i++){
+			for(int j = 0;j < n;j++){
+				if(adjacent[i][j]){
+					degrees[i]++;
+				}
+			}
+		}
+		boolean[] set = new boolean[n];
+		IntStream.range(0, n).boxed()
+			.sorted(Comparator.comparingInt(i -> degrees[i]))
+			.forEachOrdered(i -> {
+				for(int j = 0;j < n;j++){
+					if(set[j] && adjacent[i][j]){
+						return;
+					}
+				}
+				set[i] = true;
+			});
+		return set;
+	}
+	static long pack(int... values){
+		long state = 0L;
+		for(int i = values.length - 1;0 <= i;i--){
+			state = (state << BITS) | values[i];
+		}
+		return state;
+	}
+	static int get(long state,int index){
+		return (int)(state >>> (index * BITS)) & MAX_CAPACITY;
+	}
+	int containers(){
+		return capacities.length;
+	}
+	int capacity(int index){
+		return capacities[index];
+	}
+	/**
+	 * The state with every container full.
+	 */
+	long full(){
+		return full;
+	}
+	int[] unpack(long state){
+		int[] values = new int[capacities.length];
+		for(int i = 0;i < values.length;i++){
+			values[i] = get(state, i);
+		}
+		return values;
+	}
+	int sum(long state){
+		int sum = 0;
+		for(int i = 0;i < capacities.length;i++){
+			sum += get(state, i);
+		}
+		return sum;
+	}
+	int moves(){
+		return sources.length;
+	}
+	int source(int move){
+		return sources[move];
+	}
+	int target(int move){
+		return targets[move];
+	}
+	/**
+	 * The amount of liquid the move pours in the state.
+	 */
+	int amount(long state,int move){
+		int s = sources[move] * BITS;
+		int t = targets[move] * BITS;
+		int liquid = (int)(state >>> s) & MAX_CAPACITY;
+		int space = (int)((full - state) >>> t) & MAX_CAPACITY;
+		return Math.min(liquid, space);
+	}
+	/**
+	 * The state after pouring the given amount with the move.
+	 */
+	long pour(long state,int move,int amount){
+		return state - ((long)amount << (sources[move] * BITS)) + ((long)amount << (targets[move] * BITS));
+	}
+	/**
+	 * The largest amount of liquid the move may have poured to end up in the state, or 0 if the
+	 * move can not have ended in it. Every amount from 1 up to this one gives a different state
+	 * it could have been poured from, see {@link #unpour}.
+	 * <p>
+	 * A pour stops when the source is empty or the target is full, so one of them has to be in the state.
+	 * The amount poured is then still in the target, and fitted in the source before.
+	 */
+	int unpourLimit(long state,int move){
+		int s = sources[move] * BITS;
+		int t = targets[move] * BITS;
+		int sourceSpace = (int)((full - state) >>> s) & MAX_CAPACITY;
+		int targetSpace = (int)((full - state) >>> t) & MAX_CAPACITY;
+		int sourceLiquid = (int)(state >>> s) & MAX_CAPACITY;
+		int targetLiquid = (int)(state >>> t) & MAX_CAPACITY;
+		if(sourceLiquid != 0 && targetSpace != 0){
+			return 0;
+		}
+		return Math.min(targetLiquid, sourceSpace);
+	}
+	/**
+	 * The state the move poured the given amount from to end up in the state.
+	 */
+	long unpour(long state,int move,int amount){
+		return pour(state, move, -amount);
+	}
+	static int cost(int amount){
+		return amount + POUR_COST;
+	}
+	/**
+	 * The highest cost of a single pour.
+	 */
+	int maxCost(){
+		int max = 0;
+		for(int m = 0;m < sources.length;m++){
+			max = Math.max(max, cost(Math.min(capacities[sources[m]], capacities[targets[m]])));
+		}
+		return max;
+	}
+	/**
+	 * A lower bound on the cost of pouring the state into the goal, for A*.
+	 * <p>
+	 * A pour of some amount changes two containers by that amount, and at most one of them is
+	 * in the independent set. So the liquid to pour is at least half of the total difference from
+	 * the goal, and at least the difference in the independent set. The number of pours is at least
+	 * half of the number of containers which differ, and at least the sum over the independent set
+	 * of the pours each container needs if every pour moves as much as any pour into or out of it can.
+	 * A single pour changes neither bound by more than its cost, so the estimate is consistent,
+	 * and the states are still settled in order of their real cost.
+	 */
+	int estimate(long state,long goal){
+		int total = 0;
+		int totalInSet = 0;
+		int changed = 0;
+		int poursInSet = 0;
+		for(int i = 0;i < capacities.length;i++){
+			int difference = Math.abs(get(state, i) - get(goal, i));
+			if(difference == 0){
+				continue;
+			}
+			total += difference;
+			changed++;
+			if(independent[i]){
+				totalInSet += difference;
+				poursInSet += (difference + largestPours[i] - 1) / Math.max(1, largestPours[i]);
+			}
+		}
+		int liquid = Math.max((total + 1) / 2, totalInSet);
+		int pours = Math.max((changed + 1) / 2, poursInSet);
+		return liquid + POUR_COST * pours;
+	}
+	String format(long state){
+		StringJoiner joiner = new StringJoiner(", ", "[", "]");
+		for(int i = 0;i < capacities.length;i++){
+			joiner.add(Integer.toString(get(state, i)));
+		}
+		return joiner.toString();
+	}
+}
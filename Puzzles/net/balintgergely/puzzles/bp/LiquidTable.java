@@ -0,0 +1,177 @@
+package net.balintgergely.puzzles.bp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.LongPredicate;
+
+/**
+ * The cost of every state from a single start, kept in a memory mapped file, so that any number of
+ * goals can be answered without searching again.
+ * <p>
+ * The file is a header describing the containers, the moves and the start, followed by a record for
+ * each state with the total of the start, in the order of the {@link LiquidIndex}: the cost as an int,
+ * -1 if the state is not reachable, and the move and amount of the last pour as a short.
+ * The state it was poured from is found by pouring back, see {@link LiquidSpace#unpour}.
+ * <p>
+ * The table is built by a single full {@link LiquidSearch} the first time it is opened, and is
+ * rebuilt whenever the header does not match the space and the start.
+ */
+final class LiquidTable {
+	private static final int MAGIC = 0x4C515442;
+	private static final int RECORD = Integer.BYTES + Short.BYTES;
+	private final LiquidSpace space;
+	private final LiquidIndex index;
+	private final long start;
+	private final ByteBuffer records;
+	private LiquidTable(LiquidSpace space,long start,ByteBuffer records){
+		this.space = space;
+		this.index = new LiquidIndex(space, space.sum(start));
+		this.start = start;
+		this.records = records;
+	}
+	/**
+	 * Maps the table of the space and start from the file, building it first if the file
+	 * does not hold it.
+	 */
+	static LiquidTable open(Path path,LiquidSpace space,long start) throws IOException{
+		ByteBuffer header = header(space, start);
+		long size = (long)new LiquidIndex(space, space.sum(start)).size() * RECORD;
+		if(!matches(path, header, size)){
+			build(path, space, start, header, size);
+		}
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)){
+			MappedByteBuffer records = channel.map(FileChannel.MapMode.READ_ONLY, header.capacity(), size);
+			return new LiquidTable(space, start, records);
+		}
+	}
+	private static ByteBuffer header(LiquidSpace space,long start){
+		ByteBuffer header = ByteBuffer.allocate(Integer.BYTES * (3 + space.containers() + 2 * space.moves()) + Long.BYTES);
+		header.putInt(MAGIC);
+		header.putInt(space.containers());
+		for(int i = 0;i < space.containers();i++){
+			header.putInt(space.capacity(i));
+		}
+		header.putInt(space.moves());
+		for(int m = 0;m < space.moves();m++){
+			header.putInt(space.source(m));
+			header.putInt(space.target(m));
+		}
+		header.putLong(start);
+		return header.flip();
+	}
+	private static boolean matches(Path path,ByteBuffer header,long size) throws IOException{
+		if(!Files.isRegularFile(path) || Files.size(path) != header.capacity() + size){
+			return false;
+		}
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)){
+			ByteBuffer found = ByteBuffer.allocate(header.capacity());
+			while(found.hasRemaining() && 0 <= channel.read(found)){}
+			return found.flip().equals(header);
+		}
+	}
+	/**
+	 * Searches every state from the start, and writes the table next to the file before moving it
+	 * in its place, so that a table is never seen half written.
+	 */
+	private static void build(Path path,LiquidSpace space,long start,ByteBuffer header,long size) throws IOException{
+		if(Integer.MAX_VALUE < size){
+			throw new IllegalArgumentException("Too many states.");
+		}
+		LiquidSearch search = new LiquidSearch(space);
+		search.run(start, state -> false);
+		Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+		try(FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)){
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, header.capacity() + size);
+			buffer.put(header.duplicate());
+			int unsettled = search.nextUnsettled(0);
+			for(int record = 0;record < size / RECORD;record++){
+				if(record == unsettled){
+					buffer.putInt(-1).putShort((short)0);
+					unsettled = search.nextUnsettled(record + 1);
+				}else if(search.parent(record) < 0){
+					buffer.putInt(0).putShort((short)0);
+				}else{
+					int amount = search.cost(record) - search.cost(search.parent(record)) - LiquidSpace.POUR_COST;
+					buffer.putInt(search.cost(record)).putShort((short)(search.move(record) << LiquidSpace.BITS | amount));
+				}
+			}
+			buffer.force();
+		}
+		Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	/**
+	 * The number of records, one for each state with the total of the start.
+	 */
+	int size(){
+		return index.size();
+	}
+	long start(){
+		return start;
+	}
+	/**
+	 * The record of the state, which must hold the total of the start.
+	 */
+	int record(long state){
+		return index.index(state);
+	}
+	long state(int record){
+		return index.state(record);
+	}
+	/**
+	 * The cost of the state from the start, or -1 if it is not reachable.
+	 */
+	int cost(int record){
+		return records.getInt(record * RECORD);
+	}
+	/**
+	 * The move of the last pour to the state. Only meaningful for reachable states other than the start.
+	 */
+	int move(int record){
+		return records.getShort(record * RECORD + Integer.BYTES) >>> LiquidSpace.BITS;
+	}
+	/**
+	 * The record the state was poured from, or -1 for the start and the states which are not reachable.
+	 */
+	int parent(int record){
+		if(cost(record) <= 0){
+			return -1;
+		}
+		int step = records.getShort(record * RECORD + Integer.BYTES);
+		return index.index(space.unpour(state(record), step >>> LiquidSpace.BITS, step & LiquidSpace.MAX_CAPACITY));
+	}
+	/**
+	 * Scans the table for the cheapest reachable goal.
+	 * @return The record of the goal, or -1 if no reachable state is a goal.
+	 */
+	int find(LongPredicate goal){
+		int best = -1;
+		for(int record = 0;record < size();record++){
+			int cost = cost(record);
+			if(0 <= cost && (best < 0 || cost < cost(best)) && goal.test(state(record))){
+				best = record;
+			}
+		}
+		return best;
+	}
+	/**
+	 * The moves of the cheapest path from the start to the reachable state.
+	 */
+	int[] path(int record){
+		int length = 0;
+		for(int r = record;parent(r) >= 0;r = parent(r)){
+			length++;
+		}
+		int[] path = new int[length];
+		for(int r = record;parent(r) >= 0;r = parent(r)){
+			path[--length] = move(r);
+		}
+		return path;
+	}
+}
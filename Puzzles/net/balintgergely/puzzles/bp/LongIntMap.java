@@ -0,0 +1,86 @@
+package net.balintgergely.puzzles.bp;
+
+import java.util.Arrays;
+
+/**
+ * A hash map from longs to ints, without boxing.
+ * <p>
+ * Keys are spread with a multiplicative hash and probed linearly in a power of two sized table,
+ * which doubles once it is three quarters full. Entries can not be removed.
+ * {@link Long#MIN_VALUE} marks the empty slots, so it can not be used as a key.
+ */
+final class LongIntMap {
+	private static final long EMPTY = Long.MIN_VALUE;
+	private long[] keys;
+	private int[] values;
+	private int mask;
+	private int size;
+	LongIntMap(int expectedSize){
+		int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 4 / 3) - 1) << 1;
+		this.keys = new long[capacity];
+		this.values = new int[capacity];
+		this.mask = capacity - 1;
+		Arrays.fill(keys, EMPTY);
+	}
+	private static int hash(long key){
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int)(h ^ (h >>> 32));
+	}
+	/**
+	 * Finds the slot of the key, or the empty slot where it would go.
+	 */
+	private int slot(long key){
+		int i = hash(key) & mask;
+		while(keys[i] != key && keys[i] != EMPTY){
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+	int size(){
+		return size;
+	}
+	boolean containsKey(long key){
+		return keys[slot(key)] == key;
+	}
+	/**
+	 * Returns the value of the key, or the given value if the key is not in the map.
+	 */
+	int get(long key,int missing){
+		int i = slot(key);
+		return keys[i] == key ? values[i] : missing;
+	}
+	/**
+	 * Sets the value of the key.
+	 */
+	void put(long key,int value){
+		if(key == EMPTY){
+			throw new IllegalArgumentException();
+		}
+		int i = slot(key);
+		if(keys[i] == EMPTY){
+			keys[i] = key;
+			size++;
+			values[i] = value;
+			if(size * 4L > keys.length * 3L){
+				grow();
+			}
+			return;
+		}
+		values[i] = value;
+	}
+	private void grow(){
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new long[oldKeys.length * 2];
+		values = new int[oldValues.length * 2];
+		mask = keys.length - 1;
+		Arrays.fill(keys, EMPTY);
+		for(int j = 0;j < oldKeys.length;j++){
+			if(oldKeys[j] != EMPTY){
+				int i = slot(oldKeys[j]);
+				keys[i] = oldKeys[j];
+				values[i] = oldValues[j];
+			}
+		}
+	}
+}
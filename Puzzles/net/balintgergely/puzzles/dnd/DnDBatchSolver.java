@@ -0,0 +1,114 @@
+package net.balintgergely.puzzles.dnd;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.OptionalLong;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static net.balintgergely.puzzles.dnd.DnDSolver.*;
+
+/**
+ * Solves every puzzle of a corpus file in a single JVM.
+ * <p>
+ * The puzzles are in the layout {@link DnDSolver} reads, separated by blank lines.
+ * They are solved concurrently on a fixed number of threads, with a bounded number of puzzles
+ * in flight, and the solutions are written in input order, each preceded by its solve time.
+ * <p>
+ * Usage: {@code DnDBatchSolver <corpus file> <output file> [threads]}
+ */
+public class DnDBatchSolver {
+	private record Result(int index,OptionalLong solution,long nanos){}
+	private static void writeResult(PrintStream out,Result result){
+		out.printf("# Puzzle %d, %.3f ms%n", result.index(), result.nanos() / 1e6);
+		if(result.solution().isPresent()){
+			printSolution(out, result.solution().getAsLong());
+		}else{
+			out.println("Solution not found.");
+		}
+		out.println();
+	}
+	static long percentile(long[] sorted,double p){
+		if(sorted.length == 0){
+			return 0;
+		}
+		return sorted[Math.min(sorted.length - 1, (int)(sorted.length * p))];
+	}
+	public static void main(String[] atgs) throws Exception{
+		if(atgs.length < 2){
+			System.err.println("Usage: DnDBatchSolver <corpus file> <output file> [threads]");
+			return;
+		}
+		int threads = atgs.length < 3 ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(atgs[2]);
+		int window = threads * 4;
+
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(
+			threads, threads, 0L, TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<>(window),
+			new ThreadPoolExecutor.CallerRunsPolicy());
+		ArrayDeque<Future<Result>> pending = new ArrayDeque<>();
+		long[] latencies = new long[16];
+		int count = 0;
+		int solved = 0;
+		long startTime = System.nanoTime();
+		try(BufferedReader in = new BufferedReader(new FileReader(atgs[0]));
+			PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(atgs[1])))){
+			while(true){
+				DnDPuzzle puzzle = readPuzzle(in);
+				if(puzzle != null){
+					final int index = count++;
+					pending.add(executor.submit(() -> {
+						long t = System.nanoTime();
+						OptionalLong solution = DnDSearch.solve(puzzle);
+						return new Result(index, solution, System.nanoTime() - t);
+					}));
+				}
+				while(!pending.isEmpty() && (puzzle == null || window <= pending.size() || pending.peek().isDone())){
+					Result result;
+					try{
+						result = pending.poll().get();
+					}catch(ExecutionException e){
+						throw new RuntimeException("Failed to solve puzzle", e.getCause());
+					}
+					writeResult(out, result);
+					if(latencies.length == result.index()){
+						latencies = Arrays.copyOf(latencies, latencies.length * 2);
+					}
+					latencies[result.index()] = result.nanos();
+					if(result.solution().isPresent()){
+						solved++;
+					}
+				}
+				if(puzzle == null){
+					break;
+				}
+			}
+		}finally{
+			executor.shutdownNow();
+		}
+		double seconds = (System.nanoTime() - startTime) / 1e9;
+		long[] sorted = Arrays.copyOf(latencies, count);
+		Arrays.sort(sorted);
+		long total = 0;
+		for(long l : sorted){
+			total += l;
+		}
+		System.out.printf("Solved %d of %d puzzles in %.2f s on %d threads (%.1f puzzles/s)%n",
+			solved, count, seconds, threads, count / seconds);
+		if(count != 0){
+			System.out.printf("Latency: mean %.3f ms, p50 %.3f ms, p99 %.3f ms, max %.3f ms%n",
+				total / 1e6 / count,
+				percentile(sorted, 0.50) / 1e6,
+				percentile(sorted, 0.99) / 1e6,
+				sorted[count - 1] / 1e6);
+		}
+	}
+}
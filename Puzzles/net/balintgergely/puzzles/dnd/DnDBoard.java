@@ -0,0 +1,196 @@
+package net.balintgergely.puzzles.dnd;
+
+import java.util.Arrays;
+
+/**
+ * A matrix of bits for boards of any height and up to 64 columns, one long per row.
+ * <p>
+ * Within a row, the leftmost cell is the highest of the low width bits, like in the bytes of
+ * the 8x8 layout used by {@link DnDSolver}. The static methods work on single rows, so the search
+ * can keep its rows in a plain array. Rows outside of the board count as all walls, which is
+ * no open cells.
+ */
+public final class DnDBoard {
+	public static final int MAX_WIDTH = 64;
+	private final int width;
+	private final long[] rows;
+	public DnDBoard(int width,int height){
+		if(width < 1 || MAX_WIDTH < width || height < 1){
+			throw new IllegalArgumentException(width + "x" + height);
+		}
+		this.width = width;
+		this.rows = new long[height];
+	}
+	DnDBoard(int width,long[] rows){
+		this(width, rows.length);
+		for(int y = 0;y < rows.length;y++){
+			this.rows[y] = rows[y] & fullRow(width);
+		}
+	}
+	/**
+	 * Converts a matrix in the bit layout used by {@link DnDSolver}.
+	 */
+	public static DnDBoard of(long data){
+		long[] rows = new long[8];
+		for(int y = 0;y < 8;y++){
+			rows[y] = DnDSolver.rowBits(data, y);
+		}
+		return new DnDBoard(8, rows);
+	}
+	public int width(){
+		return width;
+	}
+	public int height(){
+		return rows.length;
+	}
+	/**
+	 * The bits of a row, or zero outside of the board.
+	 */
+	public long row(int y){
+		return 0 <= y && y < rows.length ? rows[y] : 0L;
+	}
+	public boolean get(int x,int y){
+		return (rows[y] & cell(width, x)) != 0;
+	}
+	public void set(int x,int y,boolean value){
+		if(value){
+			rows[y] |= cell(width, x);
+		}else{
+			rows[y] &= ~cell(width, x);
+		}
+	}
+	/**
+	 * The matrix mirrored along its main diagonal. Only boards at most {@link #MAX_WIDTH} tall have one.
+	 */
+	public DnDBoard transpose(){
+		DnDBoard result = new DnDBoard(height(), width);
+		for(int y = 0;y < height();y++){
+			for(int x = 0;x < width;x++){
+				if(get(x, y)){
+					result.set(y, x, true);
+				}
+			}
+		}
+		return result;
+	}
+	public int bitCount(){
+		int count = 0;
+		for(long row : rows){
+			count += Long.bitCount(row);
+		}
+		return count;
+	}
+	/**
+	 * The bit of column x in a row of the given width.
+	 */
+	public static long cell(int width,int x){
+		return 1L << (width - 1 - x);
+	}
+	/**
+	 * A row of the given width with every bit set.
+	 */
+	public static long fullRow(int width){
+		return -1L >>> (64 - width);
+	}
+	/**
+	 * Sets each bit of a row that is next to a set bit in the same row.
+	 */
+	static long spreadInRow(long row,long full){
+		return DnDSolver.shiftLeft(row, ~full) | DnDSolver.shiftRight(row, 0L);
+	}
+	/**
+	 * Computes the set bits of the middle row that have exactly one set neighbour,
+	 * the same way as {@link DnDSolver#deadEnds} does for the whole 8x8 board.
+	 */
+	static long deadEnds(long above,long row,long below,long full){
+		return DnDSolver.exactlyOne(above, below, DnDSolver.shiftLeft(row, ~full), DnDSolver.shiftRight(row, 0L)) & row;
+	}
+	/**
+	 * Computes the set bits of the middle row that have no set neighbour,
+	 * the same way as {@link DnDSolver#exitless} does for the whole 8x8 board.
+	 */
+	static long exitless(long above,long row,long below,long full){
+		return row & ~(above | below | spreadInRow(row, full));
+	}
+	/**
+	 * Computes the leftmost bits of the 2 cells wide strips of set bits in a row,
+	 * see {@link DnDSolver#pairsInRows}.
+	 */
+	static long pairs(long row,long full){
+		return DnDSolver.pairsInRows(row, ~full);
+	}
+	/**
+	 * Computes the leftmost bits of the 3 cells wide strips of set bits in a row,
+	 * see {@link DnDSolver#triplesInRows}.
+	 */
+	static long triples(long row,long full){
+		return DnDSolver.triplesInRows(row, ~full);
+	}
+	/**
+	 * Grows the seed bits along the row until they fill the runs of the mask they are in.
+	 */
+	static long fillRuns(long seed,long mask){
+		while(true){
+			long next = (seed | (seed << 1) | (seed >>> 1)) & mask;
+			if(next == seed){
+				return seed;
+			}
+			seed = next;
+		}
+	}
+	/**
+	 * Tests that the set bits form a single 4-connected group, or that there are none.
+	 */
+	static boolean isConnected(long[] space,long full){
+		long[] reached = new long[space.length];
+		int first = 0;
+		while(first < space.length && space[first] == 0){
+			first++;
+		}
+		if(first == space.length){
+			return true;
+		}
+		reached[first] = Long.highestOneBit(space[first]);
+		boolean changed = true;
+		while(changed){
+			changed = false;
+			for(int y = 0;y < space.length;y++){
+				long grown = reached[y] | spreadInRow(reached[y], full);
+				if(0 < y){
+					grown |= reached[y - 1];
+				}
+				if(y + 1 < space.length){
+					grown |= reached[y + 1];
+				}
+				grown &= space[y];
+				if(grown != reached[y]){
+					reached[y] = grown;
+					changed = true;
+				}
+			}
+		}
+		return Arrays.equals(reached, space);
+	}
+	long[] rows(){
+		return rows;
+	}
+	@Override
+	public boolean equals(Object obj){
+		return obj instanceof DnDBoard that && width == that.width && Arrays.equals(rows, that.rows);
+	}
+	@Override
+	public int hashCode(){
+		return width * 31 + Arrays.hashCode(rows);
+	}
+	@Override
+	public String toString(){
+		StringBuilder sb = new StringBuilder();
+		for(int y = 0;y < rows.length;y++){
+			for(int x = 0;x < width;x++){
+				sb.append(get(x, y) ? '#' : ' ');
+			}
+			sb.append(System.lineSeparator());
+		}
+		return sb.toString();
+	}
+}
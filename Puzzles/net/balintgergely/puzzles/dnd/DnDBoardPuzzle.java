@@ -0,0 +1,242 @@
+package net.balintgergely.puzzles.dnd;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+
+import static net.balintgergely.puzzles.dnd.DnDBoard.*;
+
+/**
+ * A puzzle on a board of any size supported by {@link DnDBoard}.
+ * <p>
+ * The text layout starts with the width and the height, then the column headers and the row headers,
+ * separated by spaces, then one line per row with '.' for empty cells, 'X' for enemies
+ * and 'T' for treasure chests.
+ */
+public class DnDBoardPuzzle {
+	private final int[] rows;
+	private final int[] columns;
+	private final DnDBoard enemies;
+	private final DnDBoard chests;
+	public DnDBoardPuzzle(int[] rows,int[] columns,DnDBoard enemies,DnDBoard chests){
+		int width = columns.length;
+		int height = rows.length;
+		if(enemies.width() != width || enemies.height() != height
+				|| chests.width() != width || chests.height() != height){
+			throw new IllegalArgumentException();
+		}
+		for(int r : rows){
+			if(r < 0 || width < r){
+				throw new IllegalArgumentException();
+			}
+		}
+		for(int c : columns){
+			if(c < 0 || height < c){
+				throw new IllegalArgumentException();
+			}
+		}
+		this.rows = rows.clone();
+		this.columns = columns.clone();
+		this.enemies = new DnDBoard(width, enemies.rows());
+		this.chests = new DnDBoard(width, chests.rows());
+	}
+	/**
+	 * Creates the puzzle whose solution is the given layout, with the headers counted from the walls.
+	 */
+	public static DnDBoardPuzzle of(DnDBoard walls,DnDBoard enemies,DnDBoard chests){
+		int[] rows = new int[walls.height()];
+		int[] columns = new int[walls.width()];
+		for(int y = 0;y < rows.length;y++){
+			rows[y] = Long.bitCount(walls.row(y));
+			for(int x = 0;x < columns.length;x++){
+				if(walls.get(x, y)){
+					columns[x]++;
+				}
+			}
+		}
+		return new DnDBoardPuzzle(rows, columns, enemies, chests);
+	}
+	/**
+	 * Converts an 8x8 puzzle.
+	 */
+	public static DnDBoardPuzzle of(DnDPuzzle puzzle){
+		int[] rows = new int[8];
+		int[] columns = new int[8];
+		for(int i = 0;i < 8;i++){
+			rows[i] = puzzle.getRow(i);
+			columns[i] = puzzle.getColumn(i);
+		}
+		return new DnDBoardPuzzle(rows, columns, DnDBoard.of(puzzle.enemyMask()), DnDBoard.of(puzzle.chestMask()));
+	}
+	/**
+	 * The puzzle mirrored along its main diagonal, whose solutions are the transposed solutions of this one.
+	 */
+	public DnDBoardPuzzle transpose(){
+		return new DnDBoardPuzzle(columns, rows, enemies.transpose(), chests.transpose());
+	}
+	public int width(){
+		return columns.length;
+	}
+	public int height(){
+		return rows.length;
+	}
+	public int getRow(int y){
+		return rows[y];
+	}
+	public int getColumn(int x){
+		return columns[x];
+	}
+	public boolean isEnemy(int x,int y){
+		return enemies.get(x, y);
+	}
+	public boolean isChest(int x,int y){
+		return chests.get(x, y);
+	}
+	long enemyRow(int y){
+		return enemies.row(y);
+	}
+	long chestRow(int y){
+		return chests.row(y);
+	}
+	/**
+	 * Tests every rule of the puzzle against a complete wall layout.
+	 */
+	public boolean isSolution(DnDBoard walls){
+		int width = width();
+		int height = height();
+		if(walls.width() != width || walls.height() != height){
+			return false;
+		}
+		long full = fullRow(width);
+		long[] space = new long[height];
+		for(int y = 0;y < height;y++){
+			long row = walls.row(y);
+			if(Long.bitCount(row) != rows[y] || (row & (enemyRow(y) | chestRow(y))) != 0){
+				return false;
+			}
+			space[y] = full & ~row;
+		}
+		for(int x = 0;x < width;x++){
+			long bit = cell(width, x);
+			int count = 0;
+			for(int y = 0;y < height;y++){
+				if((walls.row(y) & bit) != 0){
+					count++;
+				}
+			}
+			if(count != columns[x]){
+				return false;
+			}
+		}
+		for(int y = 0;y < height;y++){
+			long above = 0 < y ? space[y - 1] : 0L;
+			long below = y + 1 < height ? space[y + 1] : 0L;
+			if(deadEnds(above, space[y], below, full) != enemyRow(y)
+					|| exitless(above, space[y], below, full) != 0){
+				return false;
+			}
+		}
+		if(!isConnected(space, full)){
+			return false;
+		}
+		long[] rooms = new long[height];
+		for(int r = 0;r + 2 < height;r++){
+			long corners = triples(space[r], full) & triples(space[r + 1], full) & triples(space[r + 2], full);
+			while(corners != 0){
+				long corner = Long.highestOneBit(corners);
+				corners &= ~corner;
+				if(exits(space, r, height, corner, full) != 1 || chests(r, corner) != 1){
+					return false;
+				}
+				long room = DnDSolver.strips(corner, 3);
+				for(int y = r;y < r + 3;y++){
+					rooms[y] |= room;
+				}
+			}
+		}
+		for(int y = 0;y < height;y++){
+			if((chestRow(y) & ~rooms[y]) != 0){
+				return false;
+			}
+			if(y + 1 < height && (pairs(space[y] & ~rooms[y], full) & pairs(space[y + 1] & ~rooms[y + 1], full)) != 0){
+				return false;
+			}
+		}
+		return true;
+	}
+	/**
+	 * Counts the open cells around the 3x3 room with the given leftmost bit and top row,
+	 * only looking at the rows up to but excluding the given one.
+	 */
+	static int exits(long[] space,int top,int end,long corner,long full){
+		long room = DnDSolver.strips(corner, 3);
+		long sides = ((corner << 1) | (corner >>> 3)) & full;
+		int count = 0;
+		for(int y = top - 1;y <= top + 3 && y < end;y++){
+			if(y < 0 || space.length <= y){
+				continue;
+			}
+			count += Long.bitCount(space[y] & (y < top || top + 3 <= y ? room : sides));
+		}
+		return count;
+	}
+	/**
+	 * Counts the chests in the 3x3 room with the given leftmost bit and top row.
+	 */
+	int chests(int top,long corner){
+		long room = DnDSolver.strips(corner, 3);
+		int count = 0;
+		for(int y = top;y < top + 3;y++){
+			count += Long.bitCount(chestRow(y) & room);
+		}
+		return count;
+	}
+	private static int[] parseHeaders(String line,int count) throws IOException{
+		String[] parts = line.trim().split("\\s+");
+		if(parts.length != count){
+			throw new IOException("Expected " + count + " headers: " + line);
+		}
+		int[] headers = new int[count];
+		for(int i = 0;i < count;i++){
+			headers[i] = Integer.parseInt(parts[i]);
+		}
+		return headers;
+	}
+	private static String readLine(BufferedReader in) throws IOException{
+		String line = in.readLine();
+		if(line == null){
+			throw new EOFException("Incomplete puzzle");
+		}
+		return line;
+	}
+	/**
+	 * Reads the next puzzle, skipping blank lines before it.
+	 * @return The puzzle, or null at the end of the input.
+	 */
+	public static DnDBoardPuzzle read(BufferedReader in) throws IOException{
+		String line;
+		do{
+			line = in.readLine();
+			if(line == null){
+				return null;
+			}
+		}while(line.isBlank());
+		int[] size = parseHeaders(line, 2);
+		int width = size[0];
+		int height = size[1];
+		int[] columns = parseHeaders(readLine(in), width);
+		int[] rows = parseHeaders(readLine(in), height);
+		DnDBoard enemies = new DnDBoard(width, height);
+		DnDBoard chests = new DnDBoard(width, height);
+		for(int y = 0;y < height;y++){
+			line = readLine(in);
+			for(int x = 0;x < width && x < line.length();x++){
+				switch(line.charAt(x)){
+					case 'X': enemies.set(x, y, true); break;
+					case 'T': chests.set(x, y, true); break;
+				}
+			}
+		}
+		return new DnDBoardPuzzle(rows, columns, enemies, chests);
+	}
+}
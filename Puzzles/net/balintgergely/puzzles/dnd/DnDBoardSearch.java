@@ -0,0 +1,394 @@
+package net.balintgergely.puzzles.dnd;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.Optional;
+
+import static net.balintgergely.puzzles.dnd.DnDBoard.*;
+import static net.balintgergely.puzzles.dnd.DnDSolver.exactlyOne;
+import static net.balintgergely.puzzles.dnd.DnDSolver.firstConfig;
+import static net.balintgergely.puzzles.dnd.DnDSolver.nextConfig;
+import static net.balintgergely.puzzles.dnd.DnDSolver.shiftLeft;
+import static net.balintgergely.puzzles.dnd.DnDSolver.shiftRight;
+import static net.balintgergely.puzzles.dnd.DnDSolver.strips;
+
+/**
+ * Depth-first search placing one row at a time, for boards of any size supported by {@link DnDBoard}.
+ * <p>
+ * The rules are the ones {@link DnDSearch} checks on 8x8 boards, on one long per row.
+ * Each row is chosen whole, among the rows with as many walls as its header, enumerated like the
+ * rows of {@link DnDSolver#CONFIG_ARRAY} with {@link DnDSolver#nextConfig}. Before enumerating,
+ * the cells of the row whose wall is already decided are fixed: columns which are full can not
+ * get a wall, columns which need a wall in every cell left which is not occupied must get one,
+ * and the row above decides each cell under the open cells whose last neighbour it is that can
+ * still make the dead end rule hold. Only the other cells are enumerated. The walls the columns
+ * still need must also fit into the rows left, which is checked on the counts alone.
+ * <p>
+ * Connectivity is tracked with a profile of the components of the last row, like in
+ * {@link DnDConnectivityStage}, and the treasure rooms and hallways are checked in the rows
+ * the new row can affect, like in {@link DnDTreasureStage}. Complete layouts are checked
+ * against every rule.
+ * <p>
+ * The rows to enumerate grow much faster with the width than the depth of the search with the height,
+ * so boards wider than tall are searched transposed.
+ * <p>
+ * Usage: {@code DnDBoardSearch [puzzle file]}, reading the layout of {@link DnDBoardPuzzle}
+ * from the standard input if no file is given.
+ */
+public class DnDBoardSearch {
+	private final DnDBoardPuzzle puzzle;
+	private final boolean transposed;
+	private final int width;
+	private final int height;
+	private final long full;
+	private final long[] occupied;
+	private final long[] enemies;
+	private final long[] chests;
+	/**
+	 * For each row, the leftmost bits of the 3x3 squares with their top in that row which hold
+	 * exactly one chest and no enemy, the only ones which can be treasure rooms.
+	 */
+	private final long[] roomCorners;
+	/**
+	 * For each column, the number of walls the rows not yet placed must hold.
+	 */
+	private final int[] remaining;
+	/**
+	 * For each row and column, the number of cells from that row on which are not occupied
+	 * and so can hold the walls of the column.
+	 */
+	private final int[][] capacity;
+	/**
+	 * For each row and number of columns k, the most walls the rows from that row on can give
+	 * to k columns, each row giving a column at most one: the sum of the smaller of k
+	 * and the number of walls of each row.
+	 */
+	private final int[][] supply;
+	/**
+	 * For each number of walls, the number of columns which still need that many.
+	 */
+	private final int[] demand;
+	/**
+	 * For each row, the number of open cells in the rows after it.
+	 */
+	private final int[] openAfter;
+	private final long[] walls;
+	private final long[] space;
+	/**
+	 * For each row, the components of its open cells, as connected through the rows above.
+	 */
+	private final long[][] components;
+	private final int[] componentCounts;
+	private long limit;
+	private long solutions;
+	private DnDBoard solution;
+	private long nodes;
+	public DnDBoardSearch(DnDBoardPuzzle puzzle){
+		this(puzzle.height() < puzzle.width() ? puzzle.transpose() : puzzle, puzzle.height() < puzzle.width());
+	}
+	private DnDBoardSearch(DnDBoardPuzzle puzzle,boolean transposed){
+		this.puzzle = puzzle;
+		this.transposed = transposed;
+		this.width = puzzle.width();
+		this.height = puzzle.height();
+		this.full = fullRow(width);
+		this.occupied = new long[height];
+		this.enemies = new long[height];
+		this.chests = new long[height];
+		this.roomCorners = new long[height];
+		this.remaining = new int[width];
+		this.capacity = new int[height + 1][width];
+		this.supply = new int[height + 1][width + 1];
+		this.demand = new int[height + 1];
+		this.openAfter = new int[height];
+		this.walls = new long[height];
+		this.space = new long[height];
+		this.components = new long[height][width / 2 + 1];
+		this.componentCounts = new int[height];
+		for(int x = 0;x < width;x++){
+			remaining[x] = puzzle.getColumn(x);
+		}
+		int open = 0;
+		for(int y = height - 1;0 <= y;y--){
+			enemies[y] = puzzle.enemyRow(y);
+			chests[y] = puzzle.chestRow(y);
+			occupied[y] = enemies[y] | chests[y];
+			openAfter[y] = open;
+			open += width - puzzle.getRow(y);
+			for(int x = 0;x < width;x++){
+				capacity[y][x] = capacity[y + 1][x] + ((occupied[y] & cell(width, x)) == 0 ? 1 : 0);
+			}
+			for(int k = 0;k <= width;k++){
+				supply[y][k] = supply[y + 1][k] + Math.min(k, puzzle.getRow(y));
+			}
+		}
+		for(int r = 0;r + 2 < height;r++){
+			for(long corners = triples(full, full);corners != 0;corners &= corners - 1){
+				long corner = Long.lowestOneBit(corners);
+				long room = strips(corner, 3);
+				if(puzzle.chests(r, corner) == 1
+						&& ((enemies[r] | enemies[r + 1] | enemies[r + 2]) & room) == 0){
+					roomCorners[r] |= corner;
+				}
+			}
+		}
+	}
+	/**
+	 * Finds a wall layout satisfying all rules of the puzzle.
+	 */
+	public Optional<DnDBoard> solve(){
+		run(1);
+		return Optional.ofNullable(solution);
+	}
+	/**
+	 * Counts the solutions of the puzzle, stopping once the limit is reached.
+	 * @return The number of solutions, or the limit if there are at least that many.
+	 */
+	public long countSolutions(long limit){
+		if(limit <= 0){
+			return 0;
+		}
+		run(limit);
+		return solutions;
+	}
+	/**
+	 * The number of rows placed so far.
+	 */
+	public long nodes(){
+		return nodes;
+	}
+	private void run(long limit){
+		this.limit = limit;
+		this.solutions = 0;
+		this.solution = null;
+		searchRow(0);
+	}
+	private long space(int y){
+		return 0 <= y && y < height ? space[y] : 0L;
+	}
+	/**
+	 * Fixes the cells of a row the column count rule and the row above decide,
+	 * and tries every row with the remaining walls in the other cells.
+	 * @return True if the search should stop.
+	 */
+	private boolean searchRow(int y){
+		long open = occupied[y];
+		long wall = 0L;
+		for(int x = 0;x < width;x++){
+			if(capacity[y][x] < remaining[x]){
+				return false;
+			}
+			if(remaining[x] == 0){
+				open |= cell(width, x);
+			}else if(remaining[x] == capacity[y][x]){
+				wall |= cell(width, x) & ~occupied[y];
+			}
+		}
+		if(!testColumnCounts(y)){
+			return false;
+		}
+		if(0 < y){
+			long above = space[y - 1];
+			long one = exactlyOne(space(y - 2), shiftLeft(above, ~full), shiftRight(above, 0L), 0L);
+			long none = ~(space(y - 2) | spreadInRow(above, full));
+			open |= above & ((enemies[y - 1] & none) | (~enemies[y - 1] & one));
+			wall |= above & enemies[y - 1] & one;
+		}
+		long free = full & ~open & ~wall;
+		int need = puzzle.getRow(y) - Long.bitCount(wall);
+		if((open & wall) != 0 || need < 0 || Long.bitCount(free) < need){
+			return false;
+		}
+		long config = firstConfig(need, free);
+		do{
+			if(place(y, wall | config)){
+				return true;
+			}
+		}while((config = nextConfig(config, free)) != 0);
+		return false;
+	}
+	/**
+	 * Tests that the rows from the given one on can give every column the walls it still needs,
+	 * by the Gale-Ryser theorem: the k columns which need the most walls must not need more
+	 * than the rows can give k columns, and all columns together exactly as many as the rows hold.
+	 */
+	private boolean testColumnCounts(int y){
+		Arrays.fill(demand, 0);
+		for(int x = 0;x < width;x++){
+			demand[remaining[x]]++;
+		}
+		int k = 0;
+		int needed = 0;
+		for(int count = height - y;0 < count;count--){
+			for(int i = demand[count];0 < i;i--){
+				k++;
+				needed += count;
+				if(supply[y][k] < needed){
+					return false;
+				}
+			}
+		}
+		return needed == supply[y][width];
+	}
+	private boolean place(int y,long config){
+		nodes++;
+		walls[y] = config;
+		space[y] = full & ~config;
+		if(!testDeadEnds(y) || !connect(y) || !testTreasureAndHallway(y)){
+			return false;
+		}
+		if(y == height - 1){
+			DnDBoard layout = new DnDBoard(width, walls);
+			if(!puzzle.isSolution(layout)){
+				return false;
+			}
+			if(solution == null){
+				solution = transposed ? layout.transpose() : layout;
+			}
+			return limit <= ++solutions;
+		}
+		for(long c = config;c != 0;c &= c - 1){
+			remaining[width - 1 - Long.numberOfTrailingZeros(c)]--;
+		}
+		boolean stop = searchRow(y + 1);
+		for(long c = config;c != 0;c &= c - 1){
+			remaining[width - 1 - Long.numberOfTrailingZeros(c)]++;
+		}
+		return stop;
+	}
+	/**
+	 * Tests the dead end rule for the open cells of the new row, whose neighbours are all known
+	 * but the one below. Enemies need at most one known open neighbour, other cells at least one,
+	 * and on the last row these are exact. The cells of the next row an enemy needs to be walls
+	 * must not be occupied.
+	 */
+	private boolean testDeadEnds(int y){
+		long open = space[y];
+		long above = space(y - 1);
+		if(y == height - 1){
+			return deadEnds(above, open, 0L, full) == enemies[y] && exitless(above, open, 0L, full) == 0;
+		}
+		long one = exactlyOne(above, shiftLeft(open, ~full), shiftRight(open, 0L), 0L);
+		long none = ~(above | spreadInRow(open, full));
+		long enemy = open & enemies[y];
+		return (enemy & ~one & ~none) == 0
+			&& (open & ~enemy & none) == 0
+			&& (enemy & one & occupied[y + 1]) == 0;
+	}
+	/**
+	 * Computes the profile of the new row, and tests that no component was cut off
+	 * from the open cells which are still to come.
+	 */
+	private boolean connect(int y){
+		long open = space[y];
+		long[] current = components[y];
+		int count = 0;
+		int sealed = 0;
+		long unclaimed = open;
+		if(0 < y){
+			long[] previous = components[y - 1];
+			for(int i = 0;i < componentCounts[y - 1];i++){
+				long touching = previous[i] & open;
+				if(touching == 0){
+					sealed++;
+					continue;
+				}
+				long grown = fillRuns(touching, open);
+				unclaimed &= ~grown;
+				for(int j = 0;j < count;j++){
+					if((current[j] & grown) != 0){
+						grown |= current[j];
+						current[j--] = current[--count];
+					}
+				}
+				current[count++] = grown;
+			}
+		}
+		if(sealed != 0 && (sealed != 1 || open != 0 || openAfter[y] != 0)){
+			return false;
+		}
+		while(unclaimed != 0){
+			long run = fillRuns(Long.highestOneBit(unclaimed), unclaimed);
+			unclaimed &= ~run;
+			current[count++] = run;
+		}
+		componentCounts[y] = count;
+		return y < height - 1 || count <= 1;
+	}
+	/**
+	 * The open cells of a row, treating the rows not yet placed as all open.
+	 */
+	private long potentialSpace(int r,int y){
+		return r <= y ? space[r] : full;
+	}
+	/**
+	 * The leftmost bits of the 3x3 squares with their top in row r which may still be open rooms.
+	 */
+	private long potentialCorners(int r,int y){
+		if(r < 0 || height <= r + 2){
+			return 0L;
+		}
+		return roomCorners[r] & triples(potentialSpace(r, y), full) & triples(potentialSpace(r + 1, y), full) & triples(potentialSpace(r + 2, y), full);
+	}
+	/**
+	 * The cells of row q inside a 3x3 square which may still be open.
+	 */
+	private long potentialRooms(int q,int y){
+		return strips(potentialCorners(q - 2, y) | potentialCorners(q - 1, y) | potentialCorners(q, y), 3);
+	}
+	/**
+	 * Tests the treasure room rule and the no 2x2 spaces rule in the rows the new row can affect.
+	 * Chests must lie in squares which may still be rooms, and 2x2 spaces must lie in such squares.
+	 * Squares whose rows are all placed are real rooms, so their chests are counted right away,
+	 * and their exits as soon as the surrounding rows are placed.
+	 */
+	private boolean testTreasureAndHallway(int y){
+		for(int q = Math.max(0, y - 2);q <= y + 2 && q < height;q++){
+			if((chests[q] & ~potentialRooms(q, y)) != 0){
+				return false;
+			}
+		}
+		for(int t = Math.max(0, y - 2);t < y;t++){
+			long top = space[t] & ~potentialRooms(t, y);
+			long bottom = space[t + 1] & ~potentialRooms(t + 1, y);
+			if((pairs(top, full) & pairs(bottom, full)) != 0){
+				return false;
+			}
+		}
+		for(int r = Math.max(0, y - 3);r <= y - 2;r++){
+			long corners = potentialCorners(r, y);
+			while(corners != 0){
+				long corner = Long.highestOneBit(corners);
+				corners &= ~corner;
+				int exits = DnDBoardPuzzle.exits(space, r, y + 1, corner, full);
+				boolean ringKnown = height <= y + 1 || r + 3 <= y;
+				if(1 < exits || (ringKnown && exits == 0) || puzzle.chests(r, corner) != 1){
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+	public static void main(String[] atgs) throws Exception{
+		try(BufferedReader in = new BufferedReader(atgs.length == 0
+				? new InputStreamReader(System.in)
+				: new FileReader(atgs[0]))){
+			DnDBoardPuzzle puzzle;
+			while((puzzle = DnDBoardPuzzle.read(in)) != null){
+				long startTime = System.nanoTime();
+				DnDBoardSearch search = new DnDBoardSearch(puzzle);
+				Optional<DnDBoard> solution = search.solve();
+				System.out.printf("%dx%d puzzle, %d nodes in %.3f ms%n", puzzle.width(), puzzle.height(),
+					search.nodes(), (System.nanoTime() - startTime) / 1e6);
+				if(solution.isPresent()){
+					System.out.print(solution.get());
+				}else{
+					System.out.println("Solution not found.");
+				}
+				System.out.println();
+			}
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package net.balintgergely.puzzles.dnd;
+
+import static net.balintgergely.puzzles.dnd.DnDSolver.*;
+
+/**
+ * Checks the interconnected rule while the rows are being placed.
+ * <p>
+ * For the last placed row, the stage keeps which of its open cells are connected through
+ * the rows above. This is the profile: up to four disjoint 8 bit cell sets packed into an int,
+ * in descending order. When a component of the previous profile does not reach the new row,
+ * it can never be connected to anything else, so the layout is cut unless that component
+ * holds every open cell of the board.
+ */
+public class DnDConnectivityStage extends DnDStage {
+	private final int[] profiles = new int[8];
+	/**
+	 * For each row, the number of open cells in the rows after it.
+	 */
+	private final int[] openAfter = new int[8];
+	public DnDConnectivityStage(DnDPuzzle puzzle){
+		super("Connectivity");
+		int open = 0;
+		for(int y = 7;0 <= y;y--){
+			openAfter[y] = open;
+			open += 8 - puzzle.getRow(y);
+		}
+	}
+	/**
+	 * Grows the seed cells along the row until it fills the runs of the mask they are in.
+	 */
+	private static int fillRuns(int seed,int mask){
+		while(true){
+			int next = (seed | (seed << 1) | (seed >>> 1)) & mask;
+			if(next == seed){
+				return seed;
+			}
+			seed = next;
+		}
+	}
+	/**
+	 * Adds a component to a profile, merging it with every component it overlaps.
+	 */
+	private static int addComponent(int profile,int component){
+		int result = 0;
+		for(int shift = 0;shift < 32;shift += 8){
+			int other = (profile >>> shift) & 0xFF;
+			if(other == 0){
+				continue;
+			}
+			if((other & component) != 0){
+				component |= other;
+			}else{
+				result = insert(result, other);
+			}
+		}
+		return insert(result, component);
+	}
+	/**
+	 * Inserts a component into a profile, keeping the components in descending order.
+	 */
+	private static int insert(int profile,int component){
+		int result = 0;
+		int shift = 0;
+		for(int i = 0;i < 32;i += 8){
+			int other = (profile >>> i) & 0xFF;
+			if(other == 0){
+				break;
+			}
+			if(component != 0 && other < component){
+				result |= component << shift;
+				shift += 8;
+				component = 0;
+			}
+			result |= other << shift;
+			shift += 8;
+		}
+		return result | (component << shift);
+	}
+	/**
+	 * Returns the profile computed for the given row.
+	 * Only valid for rows the last accepted layout has placed.
+	 */
+	public int profile(int row){
+		return profiles[row];
+	}
+	/**
+	 * Counts the components in a profile.
+	 */
+	public static int componentCount(int profile){
+		int count = 0;
+		while(profile != 0){
+			count++;
+			profile >>>= 8;
+		}
+		return count;
+	}
+	@Override
+	protected boolean test(long walls,int row){
+		int previous = row == 0 ? 0 : profiles[row - 1];
+		int open = ~rowBits(walls, row) & 0xFF;
+		int profile = 0;
+		int unclaimed = open;
+		int sealed = 0;
+		for(int shift = 0;shift < 32;shift += 8){
+			int component = (previous >>> shift) & 0xFF;
+			if(component == 0){
+				continue;
+			}
+			int touching = component & open;
+			if(touching == 0){
+				sealed++;
+				continue;
+			}
+			int grown = fillRuns(touching, open);
+			unclaimed &= ~grown;
+			profile = addComponent(profile, grown);
+		}
+		if(sealed != 0 && (sealed != 1 || open != 0 || openAfter[row] != 0)){
+			return false;
+		}
+		while(unclaimed != 0){
+			int run = fillRuns(Integer.highestOneBit(unclaimed), unclaimed);
+			unclaimed &= ~run;
+			profile = insert(profile, run);
+		}
+		if(row == 7 && 1 < componentCount(profile)){
+			return false;
+		}
+		profiles[row] = profile;
+		return true;
+	}
+}
@@ -0,0 +1,57 @@
+package net.balintgergely.puzzles.dnd;
+
+import java.util.Objects;
+
+/**
+ * Precomputed outcome of the dead end rule for a single row.
+ * <p>
+ * The rule for a row only depends on the row itself and its two neighbours, so the table is
+ * indexed by the three rows. Each entry holds the cells of the row which are dead ends. When some
+ * open cell of the row has no exit at all, the entry holds the walls of the row instead, which can
+ * never equal a set of open cells.
+ * <p>
+ * The table takes 16 MiB and is built the first time it is needed.
+ */
+final class DnDDeadEndTable {
+	private DnDDeadEndTable(){}
+	private static final class Holder{
+		private static final byte[] TABLE = new byte[1 << 24];
+		static {
+			for(int key = 0;key < TABLE.length;key++){
+				TABLE[key] = (byte)compute(key >>> 16, (key >>> 8) & 0xFF, key & 0xFF);
+			}
+		}
+	}
+	/**
+	 * Computes a table entry. Bit 7 is the leftmost cell, as in the wall layouts.
+	 */
+	private static int compute(int above,int row,int below){
+		int open = ~row & 0xFF;
+		int u = ~above & 0xFF;
+		int d = ~below & 0xFF;
+		int l = open >>> 1;
+		int r = (open << 1) & 0xFF;
+		int ud = u ^ d;
+		int lr = l ^ r;
+		int oneExit = (ud ^ lr) & ~(u & d) & ~(l & r);
+		int noExit = ~(u | d | l | r);
+		if((noExit & open) != 0){
+			return row;
+		}
+		return oneExit & open;
+	}
+	/**
+	 * Builds the table now, if it was not built yet.
+	 */
+	static void load(){
+		Objects.requireNonNull(Holder.TABLE);
+	}
+	/**
+	 * Tests the dead end rule for a row.
+	 * Rows outside of the board should be passed as all walls.
+	 * @param enemies The enemies in the row.
+	 */
+	static boolean test(int above,int row,int below,int enemies){
+		return Holder.TABLE[(above << 16) | (row << 8) | below] == (byte)(enemies & ~row);
+	}
+}
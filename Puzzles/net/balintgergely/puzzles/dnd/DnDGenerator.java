@@ -0,0 +1,206 @@
+package net.balintgergely.puzzles.dnd;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static net.balintgergely.puzzles.dnd.DnDSolver.*;
+
+/**
+ * Generates random puzzles which have exactly one solution.
+ * <p>
+ * A dungeon is grown from a seed cell or treasure room by opening random neighbouring walls,
+ * skipping every wall whose removal would break the 2x2 or the treasure room rules.
+ * The dead ends become enemies and each room gets one chest. The headers are counted from the walls,
+ * and the puzzle is kept if a search finds exactly one solution for it.
+ * <p>
+ * Usage: {@code DnDGenerator <puzzle count> <output file> [seed]}
+ */
+public class DnDGenerator {
+	private static final int MAX_ROOMS = 2;
+	private final SplittableRandom random;
+	private long attempts;
+	public DnDGenerator(SplittableRandom random){
+		this.random = random;
+	}
+	/**
+	 * The number of dungeons generated so far, including the ones that were thrown away.
+	 */
+	public long attempts(){
+		return attempts;
+	}
+	/**
+	 * Picks a random set bit.
+	 */
+	private long randomBit(long mask){
+		for(int k = random.nextInt(Long.bitCount(mask));0 < k;k--){
+			mask = mask & (mask - 1);
+		}
+		return Long.lowestOneBit(mask);
+	}
+	/**
+	 * Grows the cells over the set bits of the space they are connected to.
+	 */
+	private static long fill(long cells,long space){
+		while(true){
+			long next = cells | (spreadOneTile(cells) & space);
+			if(next == cells){
+				return cells;
+			}
+			cells = next;
+		}
+	}
+	/**
+	 * Tests whether the space breaks the rules for the given treasure rooms,
+	 * not counting the exits which are still missing.
+	 */
+	private static boolean allowed(long space,long rooms,long roomCorners){
+		if(illegalCorridorCorners(space & ~rooms) != 0){
+			return false;
+		}
+		if(treasureRoomCorners(space) != roomCorners){
+			return false;
+		}
+		while(roomCorners != 0){
+			long corner = Long.highestOneBit(roomCorners);
+			roomCorners = roomCorners & ~corner;
+			long room = TREASURE_ROOM_MASK >>> Long.numberOfLeadingZeros(corner);
+			if(1 < Long.bitCount(space & wallMaskForTreasureRoom(room))){
+				return false;
+			}
+		}
+		return true;
+	}
+	/**
+	 * Generates a random puzzle whose solution satisfies all rules,
+	 * or null if this attempt did not produce a valid dungeon.
+	 * The solution is not necessarily unique.
+	 */
+	public DnDPuzzle dungeon(){
+		attempts++;
+		long rooms = 0L;
+		long roomCorners = 0L;
+		for(int k = random.nextInt(MAX_ROOMS + 1);0 < k;k--){
+			long corner = cell(random.nextInt(6), random.nextInt(6));
+			long room = TREASURE_ROOM_MASK >>> Long.numberOfLeadingZeros(corner);
+			if(((room | spreadOneTile(room)) & rooms) == 0){
+				rooms |= room;
+				roomCorners |= corner;
+			}
+		}
+		long space = rooms;
+		long component = roomCorners == 0 ? randomBit(-1L) : fill(Long.highestOneBit(roomCorners), rooms);
+		space |= component;
+		long blocked = 0L;
+		while(true){
+			long frontier = spreadOneTile(component) & ~space & ~blocked;
+			if(frontier == 0){
+				break;
+			}
+			long c = randomBit(frontier);
+			long next = space | c;
+			if(allowed(next, rooms, roomCorners)){
+				space = next;
+				component = fill(component | c, space);
+			}else{
+				blocked |= c;
+			}
+		}
+		long walls = ~space;
+		long chests = 0L;
+		for(long corners = roomCorners;corners != 0;){
+			long corner = Long.highestOneBit(corners);
+			corners = corners & ~corner;
+			chests |= corner >>> offset(random.nextInt(3), random.nextInt(3));
+		}
+		DnDPuzzle puzzle = DnDPuzzle.of(walls, deadEnds(space), chests);
+		if(!testInterconnected(walls) || !testTreasureAndHallway(puzzle, walls)){
+			return null;
+		}
+		for(int row = 0;row < 8;row++){
+			if(!testDeadEnds(puzzle, walls, row)){
+				return null;
+			}
+		}
+		return puzzle;
+	}
+	/**
+	 * Generates dungeons until one of them has a unique solution.
+	 */
+	public DnDPuzzle next(){
+		while(true){
+			DnDPuzzle puzzle = dungeon();
+			if(puzzle != null && new DnDSearch(puzzle, DnDSearch.DEFAULT_STAGES).countSolutions(2) == 1){
+				return puzzle;
+			}
+		}
+	}
+	public static void main(String[] atgs) throws Exception{
+		if(atgs.length < 2){
+			System.err.println("Usage: DnDGenerator <puzzle count> <output file> [seed]");
+			return;
+		}
+		int count = Integer.parseInt(atgs[0]);
+		SplittableRandom seed = atgs.length < 3 ? new SplittableRandom() : new SplittableRandom(Long.parseLong(atgs[2]));
+		int threads = Runtime.getRuntime().availableProcessors();
+
+		AtomicInteger remaining = new AtomicInteger(count);
+		LongAdder attempts = new LongAdder();
+		BlockingQueue<DnDPuzzle> queue = new ArrayBlockingQueue<>(1024);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<?>> workers = new ArrayList<>();
+		long startTime = System.nanoTime();
+		for(int i = 0;i < threads;i++){
+			DnDGenerator generator = new DnDGenerator(seed.split());
+			workers.add(executor.submit(() -> {
+				try{
+					while(0 < remaining.getAndDecrement()){
+						queue.put(generator.next());
+					}
+				}finally{
+					attempts.add(generator.attempts());
+				}
+				return null;
+			}));
+		}
+		executor.shutdown();
+		try(PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(atgs[1])))){
+			int written = 0;
+			while(written < count){
+				DnDPuzzle puzzle = queue.poll(1, TimeUnit.SECONDS);
+				if(puzzle == null){
+					for(Future<?> worker : workers){
+						if(worker.isDone()){
+							worker.get();
+						}
+					}
+					continue;
+				}
+				if(written != 0){
+					out.println();
+				}
+				writePuzzle(out, puzzle);
+				written++;
+				if(written % 1000 == 0){
+					double seconds = (System.nanoTime() - startTime) / 1e9;
+					System.out.printf("%d puzzles, %.1f puzzles/s%n", written, written / seconds);
+				}
+			}
+		}
+		executor.awaitTermination(1, TimeUnit.MINUTES);
+		double seconds = (System.nanoTime() - startTime) / 1e9;
+		System.out.printf("Generated %d puzzles in %.2f s (%.1f puzzles/s), %d dungeons tried.%n",
+			count, seconds, count / seconds, attempts.sum());
+	}
+}
@@ -0,0 +1,174 @@
+package net.balintgergely.puzzles.dnd;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.OptionalLong;
+
+import static net.balintgergely.puzzles.dnd.DnDSolver.*;
+
+/**
+ * A memory-mapped index from the headers of a puzzle to wall layouts which have the same headers.
+ * <p>
+ * The headers are packed into a 16 nibble signature, see {@link #signature}. The file starts with
+ * a magic number, followed by pairs of signatures and layouts, sorted and without duplicates.
+ * Looking up a puzzle finds the layouts with its signature by binary search, and only checks
+ * the enemies and the chests against them.
+ * <p>
+ * All valid layouts of the board are far too many to enumerate, so the index is built from
+ * the solutions of the puzzles in corpus files, together with their images under every symmetry.
+ * <p>
+ * Usage: {@code DnDIndex <index file> <corpus file>...}
+ */
+public final class DnDIndex {
+	private static final long MAGIC = 0x446E44496E646578L;
+	private record Entry(long signature,long walls){}
+	private final LongBuffer data;
+	private DnDIndex(LongBuffer data){
+		this.data = data;
+	}
+	/**
+	 * Maps an index file into memory.
+	 */
+	public static DnDIndex open(Path path) throws IOException{
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)){
+			long size = channel.size();
+			if(size < 8 || size % 16 != 8 || Integer.MAX_VALUE < size){
+				throw new IOException("Not a DnD index: " + path);
+			}
+			LongBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size).asLongBuffer();
+			if(data.get(0) != MAGIC){
+				throw new IOException("Not a DnD index: " + path);
+			}
+			return new DnDIndex(data.position(1).slice());
+		}
+	}
+	/**
+	 * Packs the row headers into the high 8 nibbles and the column headers into the low 8 nibbles,
+	 * the first row and the first column being the highest.
+	 */
+	public static long signature(DnDPuzzle puzzle){
+		long signature = 0L;
+		for(int i = 0;i < 8;i++){
+			signature = (signature << 4) | puzzle.getRow(i);
+		}
+		for(int i = 0;i < 8;i++){
+			signature = (signature << 4) | puzzle.getColumn(i);
+		}
+		return signature;
+	}
+	/**
+	 * The number of layouts in the index.
+	 */
+	public int size(){
+		return data.limit() / 2;
+	}
+	/**
+	 * Finds the first entry whose signature is not less than the given one.
+	 */
+	private int lowerBound(long signature){
+		int low = 0;
+		int high = size();
+		while(low < high){
+			int mid = (low + high) >>> 1;
+			if(Long.compareUnsigned(data.get(mid * 2), signature) < 0){
+				low = mid + 1;
+			}else{
+				high = mid;
+			}
+		}
+		return low;
+	}
+	/**
+	 * Returns the layouts in the index with the same headers as the puzzle.
+	 */
+	public long[] candidates(DnDPuzzle puzzle){
+		long signature = signature(puzzle);
+		int first = lowerBound(signature);
+		int end = first;
+		while(end < size() && data.get(end * 2) == signature){
+			end++;
+		}
+		long[] result = new long[end - first];
+		for(int i = 0;i < result.length;i++){
+			result[i] = data.get((first + i) * 2 + 1);
+		}
+		return result;
+	}
+	/**
+	 * Finds a solution of the puzzle among the layouts in the index.
+	 * An empty result does not mean the puzzle has no solution, only that none is indexed.
+	 */
+	public OptionalLong lookup(DnDPuzzle puzzle){
+		long signature = signature(puzzle);
+		for(int i = lowerBound(signature);i < size() && data.get(i * 2) == signature;i++){
+			long walls = data.get(i * 2 + 1);
+			if(isSolution(puzzle, walls)){
+				return OptionalLong.of(walls);
+			}
+		}
+		return OptionalLong.empty();
+	}
+	/**
+	 * Writes an index of the given layouts, keyed by the headers they produce.
+	 */
+	static void write(OutputStream out,List<Entry> entries) throws IOException{
+		entries.sort(Comparator.comparing(Entry::signature, Long::compareUnsigned)
+			.thenComparing(Entry::walls, Long::compareUnsigned));
+		DataOutputStream dout = new DataOutputStream(out);
+		dout.writeLong(MAGIC);
+		Entry previous = null;
+		for(Entry entry : entries){
+			if(!entry.equals(previous)){
+				dout.writeLong(entry.signature());
+				dout.writeLong(entry.walls());
+				previous = entry;
+			}
+		}
+		dout.flush();
+	}
+	public static void main(String[] atgs) throws Exception{
+		if(atgs.length < 2){
+			System.err.println("Usage: DnDIndex <index file> <corpus file>...");
+			return;
+		}
+		long startTime = System.nanoTime();
+		List<DnDPuzzle> puzzles = new ArrayList<>();
+		for(int i = 1;i < atgs.length;i++){
+			try(BufferedReader in = new BufferedReader(new FileReader(atgs[i]))){
+				DnDPuzzle puzzle;
+				while((puzzle = readPuzzle(in)) != null){
+					puzzles.add(puzzle);
+				}
+			}
+		}
+		List<Entry> entries = Collections.synchronizedList(new ArrayList<>());
+		puzzles.parallelStream().forEach(puzzle -> DnDSearch.forEachSolution(puzzle, walls -> {
+			for(DnDSymmetry symmetry : DnDSymmetry.values()){
+				entries.add(new Entry(signature(symmetry.apply(puzzle)), symmetry.apply(walls)));
+			}
+		}));
+		try(OutputStream out = new BufferedOutputStream(Files.newOutputStream(Path.of(atgs[0])))){
+			write(out, entries);
+		}
+		DnDIndex index = open(Path.of(atgs[0]));
+		System.out.printf("Indexed %d layouts of %d puzzles in %.2f s%n",
+			index.size(), puzzles.size(), (System.nanoTime() - startTime) / 1e9);
+		long hits = puzzles.stream().filter(p -> index.lookup(p).isPresent()).count();
+		if(hits != puzzles.size()){
+			System.err.printf("Only %d of %d puzzles found in the index%n", hits, puzzles.size());
+		}
+	}
+}
@@ -0,0 +1,13 @@
+package net.balintgergely.puzzles.dnd;
+
+import java.util.OptionalLong;
+
+/**
+ * The outcome of a search with a time budget.
+ * @param solution A solution, if any was found.
+ * @param timedOut True if the budget ran out before a solution was found or ruled out.
+ * @param explored The fraction of the search tree which was fully explored, each top-level branch
+ * weighing the same, and the branches below it splitting its weight evenly.
+ * @param statistics The counters of the search, including the nodes visited.
+ */
+public record DnDProgress(OptionalLong solution,boolean timedOut,double explored,DnDStatistics statistics){}
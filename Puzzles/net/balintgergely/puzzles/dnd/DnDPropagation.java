@@ -0,0 +1,278 @@
+package net.balintgergely.puzzles.dnd;
+
+import static net.balintgergely.puzzles.dnd.DnDSolver.*;
+
+/**
+ * Deduces the cells which are walls or open in every solution of a puzzle, before any search.
+ * <p>
+ * The known cells are kept in two masks in the bit layout used by {@link DnDSolver}, and the rules
+ * below are applied until neither mask changes:
+ * <ul>
+ * <li>Enemies and chests are open.</li>
+ * <li>Each row and column is solved as a line: of the configurations with the right number of walls
+ * which agree with the known cells and break none of the local rules, the cells they all agree on
+ * are known.</li>
+ * <li>An enemy has exactly one open neighbour, and every other open cell at least two.</li>
+ * <li>A chest lies in a 3x3 room of open cells without enemies or other chests, with a single exit.
+ * The cells shared by every such room the chest can be in are open.</li>
+ * <li>2x2 squares of open cells may only appear in rooms.</li>
+ * </ul>
+ * A puzzle which breaks the rules is found out when a cell becomes both a wall and open.
+ */
+public final class DnDPropagation {
+	private static final long NOT_FIRST_COLUMN = ~columnMask(0);
+	private static final long NOT_LAST_COLUMN = ~columnMask(7);
+	private final DnDPuzzle puzzle;
+	private final long enemies;
+	private final long chests;
+	/**
+	 * Whether a single open cell is allowed to have no open neighbours at all.
+	 */
+	private final boolean loneCell;
+	private long walls;
+	private long open;
+	private DnDPropagation(DnDPuzzle puzzle){
+		this.puzzle = puzzle;
+		this.enemies = puzzle.enemyMask();
+		this.chests = puzzle.chestMask();
+		int wallCount = 0;
+		for(int y = 0;y < 8;y++){
+			wallCount += puzzle.getRow(y);
+		}
+		this.loneCell = 63 <= wallCount;
+		this.open = enemies | chests;
+	}
+	/**
+	 * Propagates the rules of the puzzle to a fixpoint.
+	 */
+	public static DnDPropagation of(DnDPuzzle puzzle){
+		DnDPropagation propagation = new DnDPropagation(puzzle);
+		propagation.run();
+		return propagation;
+	}
+	/**
+	 * The cells which are walls in every solution.
+	 */
+	public long walls(){
+		return walls;
+	}
+	/**
+	 * The cells which are open in every solution.
+	 */
+	public long open(){
+		return open;
+	}
+	/**
+	 * Turns the known cells by a symmetry, giving those of the turned puzzle.
+	 */
+	DnDPropagation apply(DnDSymmetry symmetry){
+		DnDPropagation turned = new DnDPropagation(symmetry.apply(puzzle));
+		turned.walls = symmetry.apply(walls);
+		turned.open = symmetry.apply(open);
+		return turned;
+	}
+	/**
+	 * Tells if the puzzle was found to have no solution.
+	 */
+	public boolean contradiction(){
+		return (walls & open) != 0;
+	}
+	/**
+	 * Tells if every cell is known, without contradiction. The walls are then the only possible solution,
+	 * although the rules which are only checked on complete layouts may still rule it out.
+	 */
+	public boolean solved(){
+		return (walls | open) == -1L && !contradiction();
+	}
+	/**
+	 * Applies the cheap rules until nothing changes, then solves the lines with the local rules,
+	 * but only the ones near the cells which became known since they were last solved.
+	 */
+	private void run(){
+		long solvedWalls = 0L;
+		long solvedOpen = 0L;
+		long dirty = -1L;
+		while(true){
+			long w;
+			long o;
+			do{
+				w = walls;
+				o = open;
+				applyLocalRules();
+				applyRoomRules();
+				applyCounts();
+			}while((walls != w || open != o) && !contradiction());
+			if(contradiction()){
+				break;
+			}
+			dirty |= (walls ^ solvedWalls) | (open ^ solvedOpen);
+			if(dirty == 0){
+				break;
+			}
+			solvedWalls = walls;
+			solvedOpen = open;
+			solveLines(puzzle.rowHeaders(), enemies, dirty);
+			if(contradiction()){
+				break;
+			}
+			dirty = (walls ^ solvedWalls) | (open ^ solvedOpen) | dirty;
+			walls = transpose(walls);
+			open = transpose(open);
+			solveLines(puzzle.columnHeaders(), transpose(enemies), transpose(dirty));
+			walls = transpose(walls);
+			open = transpose(open);
+			dirty = 0L;
+		}
+		if(contradiction()){
+			walls = -1L;
+			open = -1L;
+		}
+	}
+	private static long transpose(long data){
+		return DnDSymmetry.TRANSPOSE.apply(data);
+	}
+	private static long left(long data){
+		return (data >>> 1) & NOT_FIRST_COLUMN;
+	}
+	private static long right(long data){
+		return (data << 1) & NOT_LAST_COLUMN;
+	}
+	private static long atLeastTwo(long a,long b,long c,long d){
+		return (a & b) | (c & d) | ((a | b) & (c | d));
+	}
+	/**
+	 * Tests the local rules against the known cells. Every open cell which is not an enemy must be able
+	 * to have two open neighbours, and every enemy one, but no more than one.
+	 * @return True if the rules may still hold.
+	 */
+	private boolean consistent(long walls,long open,long enemies){
+		if((walls & open) != 0){
+			return false;
+		}
+		long possible = ~walls;
+		long pl = left(possible), pr = right(possible), pu = possible >>> 8, pd = possible << 8;
+		long ol = left(open), or = right(open), ou = open >>> 8, od = open << 8;
+		long tooMany = atLeastTwo(ol, or, ou, od);
+		long tooFew = loneCell ? 0L : open & ~enemies & ~atLeastTwo(pl, pr, pu, pd);
+		return (enemies & (tooMany | ~(pl | pr | pu | pd))) == 0 && tooFew == 0;
+	}
+	/**
+	 * Applies the neighbour counts of the dead end rule cell by cell.
+	 */
+	private void applyLocalRules(){
+		long possible = ~walls;
+		long pl = left(possible), pr = right(possible), pu = possible >>> 8, pd = possible << 8;
+		long ol = left(open), or = right(open), ou = open >>> 8, od = open << 8;
+		long twoPossible = atLeastTwo(pl, pr, pu, pd);
+		long onePossible = pl | pr | pu | pd;
+		long threePossible = ((pl & pr) & (pu | pd)) | ((pu & pd) & (pl | pr));
+		if(!loneCell){
+			// A cell which can not have two open neighbours can only be open as an enemy.
+			walls |= ~enemies & ~twoPossible;
+		}
+		// An enemy with an open neighbour has walls on its other sides.
+		long wallLeft = enemies & (or | ou | od);
+		long wallRight = enemies & (ol | ou | od);
+		long wallUp = enemies & (ol | or | od);
+		long wallDown = enemies & (ol | or | ou);
+		walls |= right(wallLeft) | left(wallRight) | (wallUp << 8) | (wallDown >>> 8);
+		// An enemy with a single possible neighbour, or an open cell with only two, needs all of them open.
+		long needAll = (enemies & onePossible & ~twoPossible) | (open & ~enemies & twoPossible & ~threePossible);
+		open |= right(needAll & pl) | left(needAll & pr) | ((needAll & pu) << 8) | ((needAll & pd) >>> 8);
+		if((enemies & ~onePossible) != 0){
+			walls |= enemies;
+		}
+	}
+	/**
+	 * Applies the treasure room rule and the no 2x2 spaces rule.
+	 */
+	private void applyRoomRules(){
+		long roomSpace = ~walls & ~enemies;
+		long corners = treasureRoomCorners(roomSpace);
+		long potentialRooms = 0L;
+		for(long c = chests;c != 0;c &= c - 1){
+			long chest = Long.lowestOneBit(c);
+			long shared = -1L;
+			for(long k = corners;k != 0;k &= k - 1){
+				long room = TREASURE_ROOM_MASK >>> Long.numberOfLeadingZeros(Long.lowestOneBit(k));
+				long ring = wallMaskForTreasureRoom(room);
+				if((room & chest) != 0 && Long.bitCount(room & chests) == 1
+						&& Long.bitCount(ring & open) <= 1 && (ring & ~walls) != 0){
+					shared &= room;
+					potentialRooms |= room;
+				}
+			}
+			if(shared == -1L){
+				walls |= chest;
+				return;
+			}
+			open |= shared;
+		}
+		// A 2x2 square with a cell outside of the rooms may not be all open.
+		long hall = ~potentialRooms;
+		long halls = hall | right(hall) | (hall << 8) | (right(hall) << 8);
+		long tl = open, tr = right(open), bl = open << 8, br = right(open) << 8;
+		walls |= (halls & tr & bl & br)
+			| left(halls & tl & bl & br)
+			| ((halls & tl & tr & br) >>> 8)
+			| (left(halls & tl & tr & bl) >>> 8);
+	}
+	/**
+	 * Applies the row and column headers alone: once a line has all its walls, the rest of it is open,
+	 * and once it has as many undecided cells as missing walls, those are walls.
+	 */
+	private void applyCounts(){
+		for(int i = 0;i < 8;i++){
+			applyCount(rowMask(i), puzzle.getRow(i));
+			applyCount(columnMask(i), puzzle.getColumn(i));
+		}
+	}
+	private void applyCount(long line,int header){
+		long free = line & ~(walls | open);
+		int need = header - Long.bitCount(walls & line);
+		if(need == 0){
+			open |= free;
+		}else if(need == Long.bitCount(free)){
+			walls |= free;
+		}else if(need < 0 || Long.bitCount(free) < need){
+			walls = open = -1L;
+		}
+	}
+	/**
+	 * Solves the rows with undecided cells near the dirty cells as lines. The local rules involve
+	 * the neighbours of the neighbours, so each row depends on the known cells up to two rows away.
+	 * Of the configurations with the right number of walls which agree with the known cells and
+	 * keep the local rules possible, the cells they all agree on become known.
+	 */
+	private void solveLines(long headers,long enemies,long dirty){
+		for(int y = 0;y < 8;y++){
+			int shift = (7 - y) * 8;
+			long rowMask = 0xFFL << shift;
+			long near = rowMask | (rowMask << 8) | (rowMask << 16) | (rowMask >>> 8) | (rowMask >>> 16);
+			if((dirty & near) == 0 || ((walls | open) & rowMask) == rowMask){
+				continue;
+			}
+			int rowWalls = (int)(walls >>> shift) & 0xFF;
+			int rowOpen = (int)(open >>> shift) & 0xFF;
+			int all = 0xFF;
+			int any = 0;
+			for(int config : CONFIG_ARRAY[(int)(headers >>> shift) & 0xFF]){
+				if((config & rowOpen) != 0 || (config & rowWalls) != rowWalls){
+					continue;
+				}
+				long w = (walls & ~rowMask) | ((long)config << shift);
+				long o = (open & ~rowMask) | ((long)(~config & 0xFF) << shift);
+				if(consistent(w, o, enemies)){
+					all &= config;
+					any |= config;
+				}
+			}
+			if(all == 0xFF && any == 0){
+				walls = open = -1L;
+				return;
+			}
+			walls |= (long)all << shift;
+			open |= (long)(~any & 0xFF) << shift;
+		}
+	}
+}
@@ -8,13 +8,62 @@ public class DnDPuzzle {
 	private byte[] rows;
 	private byte[] columns;
 	private byte[] cells;
+	private long enemyMask;
+	private long chestMask;
+	private long rowHeaders;
+	private long columnHeaders;
 	public DnDPuzzle(byte[] rows,byte[] columns,byte[] cells){
 		if(rows.length != 8 || columns.length != 8 || cells.length != 64){
 			throw new IllegalArgumentException();
 		}
+		for(int i = 0;i < 8;i++){
+			if(rows[i] < 0 || 8 < rows[i] || columns[i] < 0 || 8 < columns[i]){
+				throw new IllegalArgumentException("Headers must be between 0 and 8");
+			}
+		}
 		this.rows = rows.clone();
 		this.columns = columns.clone();
 		this.cells = cells.clone();
+		for(int i = 0;i < 64;i++){
+			long bit = 0x8000000000000000L >>> i;
+			switch(cells[i]){
+				case CELL_ENEMY: enemyMask |= bit; break;
+				case CELL_CHEST: chestMask |= bit; break;
+			}
+		}
+		for(int i = 0;i < 8;i++){
+			rowHeaders |= ((long)rows[i]) << ((7 - i) * 8);
+			columnHeaders |= ((long)columns[i]) << ((7 - i) * 8);
+		}
+	}
+	/**
+	 * Creates the puzzle whose solution is the given layout, with the headers counted from the walls.
+	 * All masks are in the bit layout used by {@link DnDSolver}.
+	 */
+	public static DnDPuzzle of(long walls,long enemies,long chests){
+		byte[] rows = new byte[8];
+		byte[] columns = new byte[8];
+		for(int i = 0;i < 8;i++){
+			rows[i] = (byte)Long.bitCount(walls & DnDSolver.rowMask(i));
+			columns[i] = (byte)Long.bitCount(walls & DnDSolver.columnMask(i));
+		}
+		return of(rows, columns, enemies, chests);
+	}
+	/**
+	 * Creates a puzzle from its headers and the masks of its enemies and chests.
+	 * The masks are in the bit layout used by {@link DnDSolver}.
+	 */
+	public static DnDPuzzle of(byte[] rows,byte[] columns,long enemies,long chests){
+		byte[] cells = new byte[64];
+		for(int i = 0;i < 64;i++){
+			long bit = 0x8000000000000000L >>> i;
+			if((enemies & bit) != 0){
+				cells[i] = CELL_ENEMY;
+			}else if((chests & bit) != 0){
+				cells[i] = CELL_CHEST;
+			}
+		}
+		return new DnDPuzzle(rows, columns, cells);
 	}
 	public byte getCell(int x,int y){
 		return cells[y * 8 + x];
@@ -25,4 +74,28 @@ public class DnDPuzzle {
 	public byte getColumn(int x){
 		return columns[x];
 	}
+	/**
+	 * The cells holding an enemy, in the bit layout used by {@link DnDSolver}.
+	 */
+	public long enemyMask(){
+		return enemyMask;
+	}
+	/**
+	 * The cells holding a treasure chest, in the bit layout used by {@link DnDSolver}.
+	 */
+	public long chestMask(){
+		return chestMask;
+	}
+	/**
+	 * The row headers packed one per byte, the first row being the highest byte.
+	 */
+	public long rowHeaders(){
+		return rowHeaders;
+	}
+	/**
+	 * The column headers packed one per byte, the first column being the highest byte.
+	 */
+	public long columnHeaders(){
+		return columnHeaders;
+	}
 }
@@ -0,0 +1,11 @@
+package net.balintgergely.puzzles.dnd;
+
+import java.util.OptionalLong;
+
+/**
+ * The outcome of a search.
+ * @param solution A solution, if any was found.
+ * @param solutionCount The number of solutions found, at most the limit of the search.
+ * @param statistics The counters of the search.
+ */
+public record DnDResult(OptionalLong solution,long solutionCount,DnDStatistics statistics){}
@@ -0,0 +1,803 @@
+package net.balintgergely.puzzles.dnd;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
+
+import static net.balintgergely.puzzles.dnd.DnDSolver.*;
+
+/**
+ * Depth-first search placing one row at a time.
+ * The partial layout and the per-column wall counts are kept in locals,
+ * and every rule is checked as soon as the rows it depends on are placed.
+ * Nothing is allocated per node.
+ * <p>
+ * The puzzle is first turned so that the most constrained edge of the board is placed first.
+ * Rows and columns may trade places this way, and the search works on the turned puzzle,
+ * but every layout it reports is turned back.
+ * <p>
+ * Before searching, the cells every solution agrees on are deduced by {@link DnDPropagation},
+ * and only the configurations of each row which agree with them are tried.
+ */
+public class DnDSearch {
+	/**
+	 * The stages used when none are specified.
+	 */
+	public static final List<Function<DnDPuzzle,DnDStage>> DEFAULT_STAGES = List.of(
+		DnDConnectivityStage::new,
+		DnDTreasureStage::new
+	);
+	/**
+	 * The orientations placing the top, bottom, left and right edge of the board first.
+	 */
+	private static final List<DnDSymmetry> SWEEPS = List.of(
+		DnDSymmetry.IDENTITY,
+		DnDSymmetry.FLIP_VERTICAL,
+		DnDSymmetry.TRANSPOSE,
+		DnDSymmetry.ROTATE_COUNTERCLOCKWISE
+	);
+	/**
+	 * Parallel searches only split the subtrees of the rows above this one.
+	 */
+	private static final int MAX_SPLIT_ROW = 4;
+	/**
+	 * Parallel searches stop splitting while a worker has at least this many tasks queued.
+	 */
+	private static final int SPLIT_SURPLUS = 3;
+	/**
+	 * Parallel searches first run on the calling thread alone, and only fork tasks once it generated
+	 * this many nodes.
+	 */
+	private static final long SEQUENTIAL_NODES = 0x2000;
+	/**
+	 * The search polls {@link Control#cancelled()} once every this many nodes.
+	 */
+	private static final long POLL_MASK = 0xFFF;
+	/**
+	 * Setting the system property {@code net.balintgergely.puzzles.dnd.scalar} to true makes
+	 * the search filter the configurations of each row one at a time, instead of in bulk.
+	 */
+	private static final boolean SCALAR_FILTER = Boolean.getBoolean("net.balintgergely.puzzles.dnd.scalar");
+	/**
+	 * Maps a row configuration to a vector of per-column wall counts.
+	 * Column x is counted in the byte at the same position as the cell in the row.
+	 */
+	private static final long[] COLUMN_COUNTS = new long[0x100];
+	static {
+		for(int config = 0;config < 0x100;config++){
+			long v = 0L;
+			for(int bit = 0;bit < 8;bit++){
+				if((config & (1 << bit)) != 0){
+					v |= 1L << (bit * 8);
+				}
+			}
+			COLUMN_COUNTS[config] = v;
+		}
+	}
+	/**
+	 * Receives the layouts found by a search and tells it when to stop.
+	 * <p>
+	 * Searches on a single thread and the tasks of parallel searches all report to this one class,
+	 * so the calls the search loop makes on it always reach the same methods.
+	 */
+	static final class Control{
+		/**
+		 * The parallel search this one is part of, or null.
+		 */
+		private final SharedState shared;
+		/**
+		 * Whether the layouts are solutions, reported to the parallel search as they are found.
+		 */
+		private final boolean publish;
+		private final long limit;
+		/**
+		 * The layouts found, or null if they are only counted.
+		 */
+		private long[] layouts;
+		private long count;
+		private Control(SharedState shared,boolean publish,long limit,boolean keep){
+			this.shared = shared;
+			this.publish = publish;
+			this.limit = limit;
+			this.layouts = keep ? new long[8] : null;
+		}
+		/**
+		 * Counts the layouts, stopping the search once there are as many as the limit.
+		 */
+		static Control counting(long limit){
+			return new Control(null, false, limit, false);
+		}
+		/**
+		 * Keeps the layouts, stopping the search once there are as many as the limit.
+		 */
+		static Control keeping(long limit){
+			return new Control(null, false, limit, true);
+		}
+		/**
+		 * Called with each layout found.
+		 * @return True to stop the search.
+		 */
+		boolean accept(long walls){
+			count++;
+			if(publish){
+				return shared.publish(walls);
+			}
+			if(layouts != null){
+				if(layouts.length < count){
+					layouts = Arrays.copyOf(layouts, layouts.length * 2);
+				}
+				layouts[(int)count - 1] = walls;
+			}
+			return limit <= count;
+		}
+		/**
+		 * Polled regularly while the search runs.
+		 * @return True to stop the search.
+		 */
+		boolean cancelled(){
+			return shared != null && shared.stopped();
+		}
+		/**
+		 * The number of layouts found.
+		 */
+		long count(){
+			return count;
+		}
+		/**
+		 * The layouts found, in the order they were found.
+		 */
+		long[] layouts(){
+			return Arrays.copyOf(layouts, (int)count);
+		}
+	}
+	private final DnDSymmetry symmetry;
+	/**
+	 * The puzzle turned by the symmetry.
+	 */
+	private final DnDPuzzle puzzle;
+	/**
+	 * Column headers, packed the same way as the column counts.
+	 */
+	private final long columnTargets;
+	/**
+	 * For each row, the cells which are occupied by an enemy or a chest.
+	 */
+	private final int[] occupied;
+	/**
+	 * For each row, the cells which are occupied by an enemy.
+	 */
+	private final int[] enemies;
+	/**
+	 * For each row, the cells which are walls in every solution.
+	 */
+	private final int[] knownWalls;
+	/**
+	 * For each row, the cells which are open in every solution, including the occupied ones.
+	 */
+	private final int[] knownOpen;
+	/**
+	 * For each row, the configurations which avoid the occupied cells and agree with the known cells.
+	 */
+	private final int[][] candidates;
+	/**
+	 * For each row, the per-column wall counts of the candidates.
+	 */
+	private final long[][] candidateCounts;
+	/**
+	 * For each row, the number of configurations which hit an occupied cell.
+	 */
+	private final int[] occupiedCounts;
+	/**
+	 * For each row, the number of configurations which avoid the occupied cells,
+	 * but disagree with the known cells.
+	 */
+	private final int[] propagatedCounts;
+	/**
+	 * For each row, a buffer for the indices of the candidates which pass the column count rule.
+	 */
+	private final int[][] survivors;
+	private final DnDStage[] stages;
+	private Control control;
+	private int endRow;
+	private long nodes;
+	private final long[] nodesPerRow = new long[8];
+	private long occupiedCuts;
+	private long propagationCuts;
+	private long columnCuts;
+	private long deadEndCuts;
+	private long interconnectedCuts;
+	private long treasureCuts;
+	private long solutions;
+	private long runNanos;
+	/**
+	 * Creates a search using the specified stages in addition to the built-in rules.
+	 * Every factory is called once with the puzzle, as turned by {@link #orientationFor}.
+	 */
+	public DnDSearch(DnDPuzzle puzzle,List<Function<DnDPuzzle,DnDStage>> stages){
+		this(puzzle, stages, DnDPropagation.of(puzzle));
+	}
+	private DnDSearch(DnDPuzzle puzzle,List<Function<DnDPuzzle,DnDStage>> stages,DnDPropagation propagation){
+		this(puzzle, stages, orientationFor(puzzle, propagation), propagation);
+	}
+	/**
+	 * Creates a search which places the rows of the puzzle as turned by the given symmetry.
+	 * @param propagation The known cells of the puzzle before it is turned.
+	 */
+	DnDSearch(DnDPuzzle puzzle,List<Function<DnDPuzzle,DnDStage>> stages,DnDSymmetry symmetry,DnDPropagation propagation){
+		DnDPuzzle oriented = symmetry.apply(puzzle);
+		long wallMask = symmetry.apply(propagation.walls());
+		long openMask = symmetry.apply(propagation.open());
+		this.symmetry = symmetry;
+		this.puzzle = oriented;
+		this.stages = stages.stream().map(f -> f.apply(oriented)).toArray(DnDStage[]::new);
+		this.columnTargets = oriented.columnHeaders();
+		this.occupied = new int[8];
+		this.enemies = new int[8];
+		this.knownWalls = new int[8];
+		this.knownOpen = new int[8];
+		this.candidates = new int[8][];
+		this.candidateCounts = new long[8][];
+		this.occupiedCounts = new int[8];
+		this.propagatedCounts = new int[8];
+		this.survivors = new int[8][];
+		long occupiedMask = oriented.enemyMask() | oriented.chestMask();
+		for(int y = 0;y < 8;y++){
+			occupied[y] = rowBits(occupiedMask, y);
+			enemies[y] = rowBits(oriented.enemyMask(), y);
+			knownWalls[y] = rowBits(wallMask, y);
+			knownOpen[y] = rowBits(openMask, y) | occupied[y];
+			int[] configs = CONFIG_ARRAY[oriented.getRow(y)];
+			int[] rowCandidates = new int[configs.length];
+			int count = 0;
+			for(int config : configs){
+				if((config & occupied[y]) != 0){
+					occupiedCounts[y]++;
+				}else if((config & knownOpen[y]) != 0 || (config & knownWalls[y]) != knownWalls[y]){
+					propagatedCounts[y]++;
+				}else{
+					rowCandidates[count++] = config;
+				}
+			}
+			candidates[y] = Arrays.copyOf(rowCandidates, count);
+			candidateCounts[y] = new long[count];
+			for(int i = 0;i < count;i++){
+				candidateCounts[y][i] = COLUMN_COUNTS[rowCandidates[i]];
+			}
+			survivors[y] = new int[count];
+		}
+	}
+	/**
+	 * Creates a search of the same turned puzzle as the given one, sharing its tables of candidates,
+	 * with stages of its own. Searches built this way can run on different threads.
+	 */
+	private DnDSearch(DnDSearch prototype,List<Function<DnDPuzzle,DnDStage>> stages){
+		this.symmetry = prototype.symmetry;
+		this.puzzle = prototype.puzzle;
+		this.stages = stages.stream().map(f -> f.apply(prototype.puzzle)).toArray(DnDStage[]::new);
+		this.columnTargets = prototype.columnTargets;
+		this.occupied = prototype.occupied;
+		this.enemies = prototype.enemies;
+		this.knownWalls = prototype.knownWalls;
+		this.knownOpen = prototype.knownOpen;
+		this.candidates = prototype.candidates;
+		this.candidateCounts = prototype.candidateCounts;
+		this.occupiedCounts = prototype.occupiedCounts;
+		this.propagatedCounts = prototype.propagatedCounts;
+		this.survivors = new int[8][];
+		for(int y = 0;y < 8;y++){
+			survivors[y] = new int[candidates[y].length];
+		}
+	}
+	/**
+	 * Counts the configurations of a row which agree with the known cells.
+	 */
+	private static int candidateCount(int header,int row,long walls,long open){
+		int forbidden = rowBits(open, row);
+		int required = rowBits(walls, row);
+		int count = 0;
+		for(int config : CONFIG_ARRAY[header]){
+			if((config & forbidden) == 0 && (config & required) == required){
+				count++;
+			}
+		}
+		return count;
+	}
+	/**
+	 * Chooses which edge of the board the search should start from.
+	 * Each sweep direction is scored by the number of partial layouts it would generate
+	 * if only the candidate counts of the rows limited it, and the cheapest one is returned.
+	 */
+	public static DnDSymmetry orientationFor(DnDPuzzle puzzle){
+		return orientationFor(puzzle, DnDPropagation.of(puzzle));
+	}
+	private static DnDSymmetry orientationFor(DnDPuzzle puzzle,DnDPropagation propagation){
+		DnDSymmetry best = DnDSymmetry.IDENTITY;
+		double bestCost = Double.POSITIVE_INFINITY;
+		for(DnDSymmetry symmetry : SWEEPS){
+			long headers = symmetry.rowHeaders(puzzle);
+			long walls = symmetry.apply(propagation.walls());
+			long open = symmetry.apply(propagation.open());
+			double cost = 0;
+			double layouts = 1;
+			for(int row = 0;row < 8;row++){
+				layouts *= candidateCount(rowBits(headers, row), row, walls, open);
+				cost += layouts;
+			}
+			if(cost < bestCost){
+				best = symmetry;
+				bestCost = cost;
+			}
+		}
+		return best;
+	}
+	/**
+	 * Finds a wall layout satisfying all rules of the puzzle.
+	 */
+	public static OptionalLong solve(DnDPuzzle puzzle){
+		DnDSearchEvent.Search event = DnDSearchEvent.begin();
+		DnDSearch search = new DnDSearch(puzzle, DEFAULT_STAGES);
+		OptionalLong solution = search.solve();
+		if(event != null){
+			DnDSearchEvent.end(event, puzzle, search.statistics());
+		}
+		return solution;
+	}
+	/**
+	 * Searches for the solutions of the puzzle in parallel, stopping once the limit is reached.
+	 * The statistics include the wall time of the whole search.
+	 */
+	public static DnDResult search(DnDPuzzle puzzle,long limit){
+		SharedState shared = new SharedState(puzzle, DEFAULT_STAGES, null, limit);
+		return shared.invoke();
+	}
+	/**
+	 * Searches for a solution of the puzzle in parallel, giving up once the budget runs out.
+	 * The workers poll the deadline while searching, and the tasks which have not started yet
+	 * are dropped, so a puzzle which takes too long does not keep any thread busy.
+	 * <p>
+	 * The budget only starts once the search is set up. The first call also builds the tables
+	 * the rules use, which takes longer than a typical budget, and is not counted against it.
+	 */
+	public static DnDProgress solve(DnDPuzzle puzzle,Duration budget){
+		DnDDeadEndTable.load();
+		SharedState shared = new SharedState(puzzle, DEFAULT_STAGES, null, 1);
+		shared.timed = true;
+		shared.budget = budget.toNanos();
+		DnDResult result = shared.invoke();
+		return new DnDProgress(result.solution(), shared.expired && result.solution().isEmpty(),
+			shared.explored(), result.statistics());
+	}
+	/**
+	 * Counts the solutions of the puzzle in parallel, stopping once the limit is reached.
+	 * A limit of 2 is enough to tell whether the solution is unique.
+	 * @return The number of solutions, or the limit if there are at least that many.
+	 */
+	public static long countSolutions(DnDPuzzle puzzle,long limit){
+		if(limit <= 0){
+			return 0;
+		}
+		return search(puzzle, limit).solutionCount();
+	}
+	/**
+	 * Finds every solution of the puzzle in parallel.
+	 * The consumer is called from the worker threads, possibly concurrently.
+	 */
+	public static void forEachSolution(DnDPuzzle puzzle,LongConsumer consumer){
+		SharedState shared = new SharedState(puzzle, DEFAULT_STAGES, consumer, Long.MAX_VALUE);
+		shared.invoke();
+	}
+	/**
+	 * Finds a wall layout satisfying all rules of the puzzle.
+	 */
+	public OptionalLong solve(){
+		Control control = Control.keeping(1);
+		if(run(0, 8, 0L, control)){
+			return OptionalLong.of(symmetry.invert(control.layouts()[0]));
+		}
+		return OptionalLong.empty();
+	}
+	/**
+	 * Counts the solutions of the puzzle on the calling thread, stopping once the limit is reached.
+	 * @return The number of solutions, or the limit if there are at least that many.
+	 */
+	public long countSolutions(long limit){
+		if(limit <= 0){
+			return 0;
+		}
+		Control control = Control.counting(limit);
+		run(0, 8, 0L, control);
+		return control.count();
+	}
+	/**
+	 * The symmetry turning the puzzle into the one whose rows are placed.
+	 */
+	public DnDSymmetry orientation(){
+		return symmetry;
+	}
+	/**
+	 * The stages of this search, with their counters.
+	 */
+	public List<DnDStage> stages(){
+		return List.of(stages);
+	}
+	/**
+	 * The number of partial layouts generated so far.
+	 */
+	public long nodes(){
+		return nodes;
+	}
+	/**
+	 * Collects the counters of this search so far.
+	 * The wall time is the time spent searching on the calling thread.
+	 */
+	public DnDStatistics statistics(){
+		DnDStatistics statistics = new DnDStatistics();
+		for(int row = 0;row < 8;row++){
+			statistics.addNodes(row, nodesPerRow[row]);
+		}
+		statistics.addCuts(DnDStatistics.RULE_OCCUPIED, occupiedCuts);
+		statistics.addCuts(DnDStatistics.RULE_PROPAGATION, propagationCuts);
+		statistics.addCuts(DnDStatistics.RULE_COLUMNS, columnCuts);
+		statistics.addCuts(DnDStatistics.RULE_DEAD_ENDS, deadEndCuts);
+		for(DnDStage stage : stages){
+			statistics.addCuts(stage.name(), stage.cut());
+		}
+		statistics.addCuts(DnDStatistics.RULE_INTERCONNECTED, interconnectedCuts);
+		statistics.addCuts(DnDStatistics.RULE_TREASURE_AND_HALLWAY, treasureCuts);
+		statistics.addSolutions(solutions);
+		statistics.setWallNanos(runNanos);
+		return statistics;
+	}
+	/**
+	 * Extends a partial layout with the rows from startRow up to but excluding endRow,
+	 * passing every layout which survives the rules to the control.
+	 * If endRow is 8, the layouts are solutions.
+	 * Layouts are those of the turned puzzle.
+	 * @param walls A layout with all rows above startRow placed, which the rules accepted.
+	 * @return True if the control stopped the search.
+	 */
+	boolean run(int startRow,int endRow,long walls,Control control){
+		for(int row = 0;row < startRow;row++){
+			long prefix = walls & rowsUpTo(row);
+			for(DnDStage stage : stages){
+				if(!stage.test(prefix, row)){
+					return false;
+				}
+			}
+		}
+		this.control = control;
+		this.endRow = endRow;
+		long startTime = System.nanoTime();
+		try{
+			return search(startRow, walls, countWallsInColumns(walls));
+		}finally{
+			this.control = null;
+			this.runNanos += System.nanoTime() - startTime;
+		}
+	}
+	private boolean applyStages(long walls,int row){
+		for(DnDStage stage : stages){
+			if(!stage.apply(walls, row)){
+				return false;
+			}
+		}
+		return true;
+	}
+	/**
+	 * Tests the column count rule against the walls placed in the first rows.
+	 * No column may exceed its header, and the remaining rows must still be able to reach it.
+	 */
+	private boolean testColumns(long counts,int remainingRows){
+		return fitsUnder(counts, columnTargets)
+			&& fitsUnder(columnTargets - counts, remainingRows * BYTE_ONES);
+	}
+	private boolean search(int row,long walls,long counts){
+		return SCALAR_FILTER ? searchScalar(row, walls, counts) : searchBatch(row, walls, counts);
+	}
+	/**
+	 * Tries the configurations of a row one at a time.
+	 */
+	private boolean searchScalar(int row,long walls,long counts){
+		final int[] configs = CONFIG_ARRAY[puzzle.getRow(row)];
+		final int forbidden = occupied[row];
+		final int open = knownOpen[row];
+		final int required = knownWalls[row];
+		final int shift = (7 - row) * 8;
+		for(int config : configs){
+			if((++nodes & POLL_MASK) == 0 && control.cancelled()){
+				return true;
+			}
+			nodesPerRow[row]++;
+			if((config & forbidden) != 0){
+				occupiedCuts++;
+				continue;
+			}
+			if((config & open) != 0 || (config & required) != required){
+				propagationCuts++;
+				continue;
+			}
+			long nextCounts = counts + COLUMN_COUNTS[config];
+			if(!testColumns(nextCounts, 7 - row)){
+				columnCuts++;
+				continue;
+			}
+			if(descend(row, walls | (((long)config) << shift), nextCounts)){
+				return true;
+			}
+		}
+		return false;
+	}
+	/**
+	 * Tries the configurations of a row in bulk. The occupied cell rule and the known cells were
+	 * applied to them once for the whole search. The column count rule is tested on all of them by a loop
+	 * without branches, which writes the indices of the survivors to the start of the row's buffer.
+	 * Only the survivors are tried one at a time.
+	 */
+	private boolean searchBatch(int row,long walls,long counts){
+		final int[] configs = candidates[row];
+		final long[] columnCounts = candidateCounts[row];
+		final int[] survivors = this.survivors[row];
+		final long targets = columnTargets | BYTE_HIGHS;
+		final long reachable = (7 - row) * BYTE_ONES | BYTE_HIGHS;
+		int survivorCount = 0;
+		for(int i = 0;i < configs.length;i++){
+			long nextCounts = counts + columnCounts[i];
+			long fails = ~((targets - nextCounts) & (reachable - (columnTargets - nextCounts))) & BYTE_HIGHS;
+			survivors[survivorCount] = i;
+			survivorCount += 1 ^ (int)((fails | -fails) >>> 63);
+		}
+		long before = nodes;
+		int filtered = occupiedCounts[row] + propagatedCounts[row];
+		nodes += filtered + configs.length;
+		nodesPerRow[row] += filtered + configs.length;
+		occupiedCuts += occupiedCounts[row];
+		propagationCuts += propagatedCounts[row];
+		columnCuts += configs.length - survivorCount;
+		if(((before ^ nodes) & ~POLL_MASK) != 0 && control.cancelled()){
+			return true;
+		}
+		final int shift = (7 - row) * 8;
+		for(int k = 0;k < survivorCount;k++){
+			int i = survivors[k];
+			if(descend(row, walls | (((long)configs[i]) << shift), counts + columnCounts[i])){
+				return true;
+			}
+		}
+		return false;
+	}
+	/**
+	 * Tests the rules which need the new row on a configuration which passed the occupied cell
+	 * and column count rules, then reports the layout or searches below it.
+	 * @return True if the control stopped the search.
+	 */
+	private boolean descend(int row,long nextWalls,long nextCounts){
+		if(0 < row && !testDeadEnds(nextWalls, row - 1, enemies[row - 1])){
+			deadEndCuts++;
+			return false;
+		}
+		if(!applyStages(nextWalls, row)){
+			return false;
+		}
+		if(row == 7){
+			if(!testDeadEnds(nextWalls, 7, enemies[7])){
+				deadEndCuts++;
+			}else if(!testInterconnected(nextWalls)){
+				interconnectedCuts++;
+			}else if(!testTreasureAndHallway(puzzle, nextWalls)){
+				treasureCuts++;
+			}else{
+				solutions++;
+				return control.accept(nextWalls);
+			}
+			return false;
+		}else if(row + 1 == endRow){
+			return control.accept(nextWalls);
+		}else{
+			return search(row + 1, nextWalls, nextCounts);
+		}
+	}
+	/**
+	 * The state shared by all tasks of a parallel search.
+	 * <p>
+	 * The tables of candidates are built once, by the search of the calling thread, and every worker thread
+	 * reuses a single search of its own sharing them. The tasks run on the calling thread alone, in the order
+	 * of a sequential search, until it generated {@link #SEQUENTIAL_NODES} nodes. Most puzzles are solved
+	 * before that, and then no task is forked at all.
+	 */
+	private static final class SharedState{
+		private final DnDPuzzle puzzle;
+		private final DnDSymmetry symmetry;
+		private final List<Function<DnDPuzzle,DnDStage>> stages;
+		/**
+		 * The search of the calling thread, whose tables every other search shares.
+		 */
+		private final DnDSearch prototype;
+		private final Map<Thread,DnDSearch> searches = new ConcurrentHashMap<>();
+		private final LongConsumer consumer;
+		private final long limit;
+		private final AtomicLong found = new AtomicLong();
+		private final DnDStatistics statistics = new DnDStatistics();
+		private volatile boolean stopped;
+		/**
+		 * Whether the tasks may be split. Only set by the calling thread before the first task is forked.
+		 */
+		private boolean splitting;
+		/**
+		 * Whether the search stops once the budget, in nanoseconds, runs out. The deadline is set
+		 * when the search starts, in {@link System#nanoTime()} units.
+		 */
+		private boolean timed;
+		private long budget;
+		private long deadline;
+		private volatile boolean expired;
+		/**
+		 * The fraction of the search tree fully explored, in units of {@link SolutionTask#WHOLE}.
+		 */
+		private long explored;
+		private boolean hasSolution;
+		private long solution;
+		private SharedState(DnDPuzzle puzzle,List<Function<DnDPuzzle,DnDStage>> stages,LongConsumer consumer,long limit){
+			this.puzzle = puzzle;
+			DnDPropagation propagation = DnDPropagation.of(puzzle);
+			this.symmetry = orientationFor(puzzle, propagation);
+			this.stages = stages;
+			this.prototype = new DnDSearch(symmetry.apply(puzzle), stages, DnDSymmetry.IDENTITY, propagation.apply(symmetry));
+			this.consumer = consumer;
+			this.limit = limit;
+			searches.put(Thread.currentThread(), prototype);
+		}
+		/**
+		 * The search of the current thread.
+		 */
+		private DnDSearch search(){
+			return searches.computeIfAbsent(Thread.currentThread(), t -> new DnDSearch(prototype, stages));
+		}
+		/**
+		 * Tells whether the tasks may be split, which they may once the search generated enough nodes
+		 * on the calling thread.
+		 */
+		private boolean splitting(DnDSearch search){
+			if(!splitting && SEQUENTIAL_NODES <= search.nodes()){
+				splitting = true;
+			}
+			return splitting;
+		}
+		private synchronized void record(long walls){
+			if(!hasSolution){
+				hasSolution = true;
+				solution = walls;
+			}
+		}
+		/**
+		 * Reports a solution of the turned puzzle.
+		 * @return True if the limit is reached.
+		 */
+		private boolean publish(long walls){
+			walls = symmetry.invert(walls);
+			if(consumer != null){
+				consumer.accept(walls);
+			}
+			record(walls);
+			if(limit <= found.incrementAndGet()){
+				stopped = true;
+				return true;
+			}
+			return false;
+		}
+		private synchronized void explore(long weight){
+			explored += weight;
+		}
+		private synchronized double explored(){
+			return (double)explored / SolutionTask.WHOLE;
+		}
+		/**
+		 * Tells whether the search should stop, because the limit is reached or the deadline passed.
+		 */
+		private boolean stopped(){
+			if(timed && !stopped && deadline - System.nanoTime() <= 0){
+				expired = true;
+				stopped = true;
+			}
+			return stopped;
+		}
+		private DnDResult invoke(){
+			DnDSearchEvent.Search event = DnDSearchEvent.begin();
+			long startTime = System.nanoTime();
+			deadline = startTime + budget;
+			new SolutionTask(this, 0, new long[]{0L}, 0, 1, SolutionTask.WHOLE).invoke();
+			for(DnDSearch search : searches.values()){
+				statistics.add(search.statistics());
+			}
+			synchronized(this){
+				statistics.setWallNanos(System.nanoTime() - startTime);
+				DnDSearchEvent.end(event, puzzle, statistics);
+				return new DnDResult(
+					hasSolution ? OptionalLong.of(solution) : OptionalLong.empty(),
+					Math.min(found.get(), limit),
+					statistics);
+			}
+		}
+	}
+	/**
+	 * Searches the subtrees below a range of partial layouts with the same rows placed,
+	 * returning the number of solutions in them.
+	 * <p>
+	 * The layouts are searched one at a time, those of the top rows by placing the next row
+	 * and searching the resulting range. Once splitting is allowed, and while the workers are running out
+	 * of work, the rest of a range is split in half, so idle workers can steal one of the halves.
+	 * Each task carries its share of the whole search tree, divided evenly between its layouts, which is
+	 * counted as explored once the subtrees are searched to the end. The shares are fixed point
+	 * fractions, which add up to exactly the whole tree once every subtree is searched.
+	 */
+	private static final class SolutionTask extends RecursiveTask<Long>{
+		private static final long serialVersionUID = 1L;
+		/**
+		 * The weight of the whole search tree.
+		 */
+		private static final long WHOLE = 1L << 62;
+		private final transient SharedState shared;
+		private final int row;
+		private final long[] layouts;
+		private final int from;
+		private final int to;
+		private final long weight;
+		private SolutionTask(SharedState shared,int row,long[] layouts,int from,int to,long weight){
+			this.shared = shared;
+			this.row = row;
+			this.layouts = layouts;
+			this.from = from;
+			this.to = to;
+			this.weight = weight;
+		}
+		/**
+		 * The share of the layouts of this task before the given one, rounded down.
+		 * The share before the end is the whole weight of the task.
+		 */
+		private long share(int index){
+			int length = to - from;
+			return weight / length * (index - from) + weight % length * (index - from) / length;
+		}
+		@Override
+		protected Long compute(){
+			if(to == from){
+				shared.explore(weight);
+				return 0L;
+			}
+			DnDSearch search = shared.search();
+			long count = 0;
+			for(int i = from;i < to && !shared.stopped();i++){
+				if(1 < to - i && shared.splitting(search) && getSurplusQueuedTaskCount() < SPLIT_SURPLUS){
+					int middle = (i + to) >>> 1;
+					SolutionTask first = new SolutionTask(shared, row, layouts, i, middle, share(middle) - share(i));
+					SolutionTask second = new SolutionTask(shared, row, layouts, middle, to, weight - share(middle));
+					first.fork();
+					count += second.compute();
+					return count + first.join();
+				}
+				long share = share(i + 1) - share(i);
+				if(row < MAX_SPLIT_ROW){
+					Control next = Control.keeping(Long.MAX_VALUE);
+					search.run(row, row + 1, layouts[i], next);
+					long[] children = next.layouts();
+					count += new SolutionTask(shared, row + 1, children, 0, children.length, share).compute();
+				}else{
+					Control control = new Control(shared, true, Long.MAX_VALUE, false);
+					boolean stopped = search.run(row, 8, layouts[i], control);
+					count += control.count();
+					if(stopped){
+						break;
+					}
+					shared.explore(share);
+				}
+			}
+			return count;
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package net.balintgergely.puzzles.dnd;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder events for the searches of {@link DnDSearch}.
+ */
+final class DnDSearchEvent {
+	private DnDSearchEvent(){}
+	@Name("net.balintgergely.puzzles.dnd.Search")
+	@Label("DnD Search")
+	@Category("Puzzles")
+	@Description("A complete search for the solutions of a puzzle")
+	static final class Search extends Event{
+		@Label("Row Headers")
+		String rowHeaders;
+		@Label("Column Headers")
+		String columnHeaders;
+		@Label("Nodes")
+		long nodes;
+		@Label("Solutions")
+		long solutions;
+	}
+	@Name("net.balintgergely.puzzles.dnd.RuleCuts")
+	@Label("DnD Rule Cuts")
+	@Category("Puzzles")
+	@Description("The number of partial layouts a rule cut during a search")
+	static final class RuleCuts extends Event{
+		@Label("Rule")
+		String rule;
+		@Label("Cuts")
+		long cuts;
+	}
+	private static String headers(long packed){
+		StringBuilder sb = new StringBuilder(8);
+		for(int shift = 56;0 <= shift;shift -= 8){
+			sb.append((packed >>> shift) & 0xFF);
+		}
+		return sb.toString();
+	}
+	/**
+	 * Starts timing a search, if the event is enabled.
+	 * @return The event to pass to {@link #end}, or null.
+	 */
+	static Search begin(){
+		Search event = new Search();
+		if(!event.isEnabled()){
+			return null;
+		}
+		event.begin();
+		return event;
+	}
+	/**
+	 * Commits the events of a finished search.
+	 */
+	static void end(Search event,DnDPuzzle puzzle,DnDStatistics statistics){
+		if(event == null){
+			return;
+		}
+		event.end();
+		if(event.shouldCommit()){
+			event.rowHeaders = headers(puzzle.rowHeaders());
+			event.columnHeaders = headers(puzzle.columnHeaders());
+			event.nodes = statistics.nodes();
+			event.solutions = statistics.solutions();
+			event.commit();
+			statistics.cuts().forEach((rule, count) -> {
+				RuleCuts cuts = new RuleCuts();
+				cuts.rule = rule;
+				cuts.cuts = count;
+				cuts.commit();
+			});
+		}
+	}
+}
@@ -0,0 +1,194 @@
+package net.balintgergely.puzzles.dnd;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.OptionalLong;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static net.balintgergely.puzzles.dnd.DnDSolver.*;
+
+/**
+ * A long-running solver, so that puzzles are solved by code the JIT compiler has already optimized.
+ * <p>
+ * Before serving, the service solves a fixed set of generated puzzles to warm up the search.
+ * It then reads one request per line and answers each with one line:
+ * <ul>
+ * <li>A puzzle, as the column headers, the row headers and the 8 rows of cells of the layout
+ * {@link DnDSolver} reads, separated by spaces. The answer is {@code SOLVED} followed by the walls
+ * as 64 characters, '#' for walls and '.' for open cells, or {@code UNSOLVABLE}.</li>
+ * <li>{@code STATS}, answered with the number of puzzles solved and the latency percentiles
+ * of the most recent ones.</li>
+ * <li>{@code QUIT}, which closes the connection.</li>
+ * </ul>
+ * Malformed requests are answered with {@code ERROR} and a message.
+ * <p>
+ * Given a {@link DnDIndex}, puzzles are looked up in it first, and only searched for
+ * when none of the indexed layouts solves them.
+ * <p>
+ * Without arguments, or given {@code -} as the socket file, the service talks over the standard
+ * input and output. Given a path, it listens on a Unix-domain socket there, serving each connection
+ * on its own thread.
+ * <p>
+ * Usage: {@code DnDService [socket file] [index file]}
+ */
+public class DnDService {
+	private static final int WARM_UP_PUZZLES = 200;
+	private static final long WARM_UP_SEED = 0x446E44L;
+	private static final int LATENCY_WINDOW = 1 << 12;
+	private final DnDIndex index;
+	private final long[] latencies = new long[LATENCY_WINDOW];
+	private long solved;
+	public DnDService(){
+		this(null);
+	}
+	/**
+	 * @param index The index to look puzzles up in before searching, or null to always search.
+	 */
+	public DnDService(DnDIndex index){
+		this.index = index;
+	}
+	/**
+	 * Solves generated puzzles until the hot methods of the search are compiled.
+	 * The solve times of the warm-up are not recorded.
+	 * @return The time taken, in nanoseconds.
+	 */
+	public long warmUp(){
+		long startTime = System.nanoTime();
+		DnDGenerator generator = new DnDGenerator(new SplittableRandom(WARM_UP_SEED));
+		for(int i = 0;i < WARM_UP_PUZZLES;i++){
+			DnDSearch.solve(generator.next());
+		}
+		return System.nanoTime() - startTime;
+	}
+	private synchronized void record(long nanos){
+		latencies[(int)(solved++ % LATENCY_WINDOW)] = nanos;
+	}
+	/**
+	 * Describes the number of puzzles solved and the latency of the most recent ones.
+	 */
+	public synchronized String stats(){
+		long[] sorted = Arrays.copyOf(latencies, (int)Math.min(solved, LATENCY_WINDOW));
+		Arrays.sort(sorted);
+		return String.format("STATS solved %d, p50 %.3f ms, p99 %.3f ms, max %.3f ms",
+			solved,
+			DnDBatchSolver.percentile(sorted, 0.50) / 1e6,
+			DnDBatchSolver.percentile(sorted, 0.99) / 1e6,
+			sorted.length == 0 ? 0.0 : sorted[sorted.length - 1] / 1e6);
+	}
+	/**
+	 * Parses a puzzle given on a single line.
+	 */
+	static DnDPuzzle parsePuzzle(String line){
+		String[] parts = line.trim().split("\\s+");
+		if(parts.length != 10){
+			throw new IllegalArgumentException("Expected headers and 8 rows, got " + parts.length + " parts");
+		}
+		byte[] rows = new byte[8];
+		byte[] cols = new byte[8];
+		byte[] cells = new byte[8 * 8];
+		parseHeaders(parts[0], cols);
+		parseHeaders(parts[1], rows);
+		for(int y = 0;y < 8;y++){
+			parseCells(parts[y + 2], y, cells);
+		}
+		return new DnDPuzzle(rows, cols, cells);
+	}
+	static String formatWalls(long walls){
+		StringBuilder sb = new StringBuilder(64);
+		for(int y = 0;y < 8;y++){
+			for(int x = 0;x < 8;x++){
+				sb.append(get(walls, x, y) ? '#' : '.');
+			}
+		}
+		return sb.toString();
+	}
+	/**
+	 * Answers a single request.
+	 */
+	public String handle(String request){
+		if(request.equals("STATS")){
+			return stats();
+		}
+		try{
+			DnDPuzzle puzzle = parsePuzzle(request);
+			long startTime = System.nanoTime();
+			OptionalLong solution = index == null ? OptionalLong.empty() : index.lookup(puzzle);
+			if(solution.isEmpty()){
+				solution = DnDSearch.solve(puzzle);
+			}
+			record(System.nanoTime() - startTime);
+			return solution.isPresent() ? "SOLVED " + formatWalls(solution.getAsLong()) : "UNSOLVABLE";
+		}catch(RuntimeException e){
+			return "ERROR " + (e.getMessage() == null ? e.toString() : e.getMessage());
+		}
+	}
+	/**
+	 * Answers requests until the end of the input or a {@code QUIT} request.
+	 */
+	public void serve(BufferedReader in,PrintStream out) throws IOException{
+		String line;
+		while((line = in.readLine()) != null){
+			line = line.trim();
+			if(line.isEmpty()){
+				continue;
+			}
+			if(line.equals("QUIT")){
+				break;
+			}
+			out.println(handle(line));
+			out.flush();
+		}
+	}
+	/**
+	 * Listens on a Unix-domain socket, serving each connection on a thread of its own.
+	 */
+	public void serve(Path socket) throws IOException{
+		Files.deleteIfExists(socket);
+		ExecutorService executor = Executors.newCachedThreadPool(r -> {
+			Thread thread = new Thread(r, "DnDService connection");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try(ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)){
+			server.bind(UnixDomainSocketAddress.of(socket));
+			System.err.println("Listening on " + socket);
+			while(true){
+				SocketChannel channel = server.accept();
+				executor.execute(() -> {
+					try(channel){
+						serve(new BufferedReader(Channels.newReader(channel, StandardCharsets.US_ASCII)),
+							new PrintStream(Channels.newOutputStream(channel), false, StandardCharsets.US_ASCII));
+					}catch(IOException e){
+						System.err.println("Connection failed: " + e);
+					}
+				});
+			}
+		}finally{
+			executor.shutdownNow();
+			Files.deleteIfExists(socket);
+		}
+	}
+	public static void main(String[] atgs) throws IOException{
+		DnDService service = new DnDService(atgs.length < 2 ? null : DnDIndex.open(Path.of(atgs[1])));
+		System.err.printf("Warmed up on %d puzzles in %.2f s%n", WARM_UP_PUZZLES, service.warmUp() / 1e9);
+		if(atgs.length == 0 || atgs[0].equals("-")){
+			service.serve(new BufferedReader(new InputStreamReader(System.in)), System.out);
+			System.err.println(service.stats());
+		}else{
+			service.serve(Path.of(atgs[0]));
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package net.balintgergely.puzzles.dnd;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.OptionalLong;
+
+/**
+ * A persistent cache of solved puzzles.
+ * <p>
+ * Puzzles are stored in a canonical form: of the images of the puzzle under all symmetries of the board,
+ * the one with the least headers, enemies and chests. Mirrored and rotated variants of a puzzle
+ * therefore share an entry, and the stored solution is turned back through the symmetry on lookup.
+ * <p>
+ * The file is a memory-mapped, append-only log of fixed size records. Each record holds the canonical
+ * puzzle and its solution, with a tag written last which marks the record as complete.
+ * The unused end of the mapping is zero, so reading stops at the first record without a tag.
+ * An in-memory index maps the canonical puzzles to their records.
+ */
+public final class DnDSolutionCache implements Closeable {
+	private static final int RECORD_SIZE = 40;
+	private static final long TAG_SOLVED = 1;
+	private static final long TAG_UNSOLVABLE = 2;
+	private static final long INITIAL_CAPACITY = RECORD_SIZE << 10;
+	private record Key(long signature,long enemies,long chests){}
+	private final FileChannel channel;
+	private final HashMap<Key,Integer> index = new HashMap<>();
+	private MappedByteBuffer log;
+	private int size;
+	private DnDSolutionCache(FileChannel channel) throws IOException{
+		this.channel = channel;
+		long capacity = Math.max(INITIAL_CAPACITY, channel.size() - channel.size() % RECORD_SIZE);
+		this.log = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+		while(size + RECORD_SIZE <= log.capacity() && log.getLong(size) != 0){
+			index.put(new Key(log.getLong(size + 8), log.getLong(size + 16), log.getLong(size + 24)), size);
+			size += RECORD_SIZE;
+		}
+	}
+	/**
+	 * Opens the cache in the given file, creating it if it does not exist.
+	 */
+	public static DnDSolutionCache open(Path path) throws IOException{
+		FileChannel channel = FileChannel.open(path,
+			StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+		try{
+			return new DnDSolutionCache(channel);
+		}catch(IOException | RuntimeException e){
+			channel.close();
+			throw e;
+		}
+	}
+	private static Key key(DnDPuzzle puzzle){
+		return new Key(DnDIndex.signature(puzzle), puzzle.enemyMask(), puzzle.chestMask());
+	}
+	private static int compare(Key a,Key b){
+		int c = Long.compareUnsigned(a.signature(), b.signature());
+		if(c == 0){
+			c = Long.compareUnsigned(a.enemies(), b.enemies());
+		}
+		if(c == 0){
+			c = Long.compareUnsigned(a.chests(), b.chests());
+		}
+		return c;
+	}
+	/**
+	 * Finds the symmetry turning the puzzle into its canonical form.
+	 */
+	public static DnDSymmetry canonicalSymmetry(DnDPuzzle puzzle){
+		DnDSymmetry best = DnDSymmetry.IDENTITY;
+		Key bestKey = key(puzzle);
+		for(DnDSymmetry symmetry : DnDSymmetry.values()){
+			Key k = key(symmetry.apply(puzzle));
+			if(compare(k, bestKey) < 0){
+				best = symmetry;
+				bestKey = k;
+			}
+		}
+		return best;
+	}
+	/**
+	 * The number of puzzles in the cache.
+	 */
+	public synchronized int size(){
+		return index.size();
+	}
+	/**
+	 * Looks up the solution of a puzzle.
+	 * @return The solution, an empty optional if the puzzle is known to have none,
+	 * or null if the puzzle is not in the cache.
+	 */
+	public OptionalLong get(DnDPuzzle puzzle){
+		DnDSymmetry symmetry = canonicalSymmetry(puzzle);
+		Key key = key(symmetry.apply(puzzle));
+		synchronized(this){
+			Integer offset = index.get(key);
+			if(offset == null){
+				return null;
+			}
+			if(log.getLong(offset) == TAG_UNSOLVABLE){
+				return OptionalLong.empty();
+			}
+			return OptionalLong.of(symmetry.invert(log.getLong(offset + 32)));
+		}
+	}
+	/**
+	 * Stores the solution of a puzzle, or that it has none.
+	 */
+	public void put(DnDPuzzle puzzle,OptionalLong solution) throws IOException{
+		DnDSymmetry symmetry = canonicalSymmetry(puzzle);
+		Key key = key(symmetry.apply(puzzle));
+		synchronized(this){
+			if(index.containsKey(key)){
+				return;
+			}
+			if(log.capacity() < size + RECORD_SIZE){
+				long capacity = (long)log.capacity() * 2;
+				if(Integer.MAX_VALUE < capacity){
+					throw new IOException("The cache is full");
+				}
+				log.force();
+				log = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+			}
+			log.putLong(size + 8, key.signature());
+			log.putLong(size + 16, key.enemies());
+			log.putLong(size + 24, key.chests());
+			log.putLong(size + 32, symmetry.apply(solution.orElse(0L)));
+			log.putLong(size, solution.isPresent() ? TAG_SOLVED : TAG_UNSOLVABLE);
+			index.put(key, size);
+			size += RECORD_SIZE;
+		}
+	}
+	/**
+	 * Returns the solution of the puzzle from the cache, or searches for it and stores it.
+	 */
+	public OptionalLong solve(DnDPuzzle puzzle) throws IOException{
+		OptionalLong solution = get(puzzle);
+		if(solution == null){
+			solution = DnDSearch.solve(puzzle);
+			put(puzzle, solution);
+		}
+		return solution;
+	}
+	@Override
+	public synchronized void close() throws IOException{
+		log.force();
+		channel.close();
+	}
+}
@@ -2,29 +2,53 @@ package net.balintgergely.puzzles.dnd;
 
 import java.util.stream.IntStream;
 import java.util.stream.LongStream;
-import java.util.stream.StreamSupport;
-import java.util.Spliterator;
-import java.util.Spliterators;
 import java.util.OptionalLong;
 import java.util.Scanner;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.file.Path;
 
 public class DnDSolver {
-	private static final int[][] CONFIG_ARRAY;
-	private static final int CONFIG_ARRAY_CHARACTERISTICS =
-		Spliterator.ORDERED | Spliterator.SIZED | Spliterator.SUBSIZED |
-		Spliterator.IMMUTABLE | Spliterator.NONNULL |
-		Spliterator.DISTINCT | Spliterator.SORTED;
+	/**
+	 * All row configurations, indexed by the number of walls in the row.
+	 */
+	static final int[][] CONFIG_ARRAY;
 	static {
 		CONFIG_ARRAY = new int[9][];
 		for(int i = 0;i <= 8;i++){
-			final int bitCount = i;
-			CONFIG_ARRAY[i] = IntStream.range(0,0x100)
-				.filter(k -> Integer.bitCount(k) == bitCount)
-				.toArray();
+			IntStream.Builder configs = IntStream.builder();
+			long config = firstConfig(i, 0xFF);
+			do{
+				configs.add((int)config);
+			}while((config = nextConfig(config, 0xFF)) != 0);
+			CONFIG_ARRAY[i] = configs.build().toArray();
 		}
 	}
+	/**
+	 * The lowest row with the given number of walls, all of them within the mask.
+	 */
+	static long firstConfig(int count,long mask){
+		long config = 0L;
+		for(int i = 0;i < count;i++){
+			config |= Long.lowestOneBit(mask & ~config);
+		}
+		return config;
+	}
+	/**
+	 * The next higher row with the same number of walls within the mask, or 0 after the highest one.
+	 * Starting from {@link #firstConfig}, this visits every such row in increasing order,
+	 * on rows of any width.
+	 */
+	static long nextConfig(long config,long mask){
+		long carried = ((config | ~mask) + Long.lowestOneBit(config)) & mask;
+		if(carried == 0){
+			return 0L;
+		}
+		return carried | firstConfig(Long.bitCount(config) - Long.bitCount(carried), mask);
+	}
 	/**
 	 * Convert coordinates to an offset.
 	 */
@@ -49,6 +73,12 @@ public class DnDSolver {
 	public static long rowMask(int row){
 		return 0xFF00000000000000L >>> (row * 8);
 	}
+	/**
+	 * Produce a mask for the given row and all rows above it.
+	 */
+	public static long rowsUpTo(int row){
+		return row < 0 ? 0L : -1L << ((7 - row) * 8);
+	}
 	/**
 	 * Produce a mask for the given column.
 	 */
@@ -66,59 +96,124 @@ public class DnDSolver {
 		data = (data + (data >>> 32));//  - - - - - - - 8
 		return (byte)(data & 0xF);
 	}
+	/**
+	 * Eight bytes, each with the lowest bit set.
+	 */
+	static final long BYTE_ONES  = 0x0101010101010101L;
+	/**
+	 * Eight bytes, each with the highest bit set.
+	 */
+	static final long BYTE_HIGHS = 0x8080808080808080L;
+	/**
+	 * Counts the number of walls in every column, one column per byte.
+	 * The first column is the highest byte, like in {@link DnDPuzzle#columnHeaders()}.
+	 */
+	static long countWallsInColumns(long data){
+		long counts = 0L;
+		for(int bit = 0;bit < 8;bit++){
+			long column = (data >>> bit) & BYTE_ONES;
+			counts |= ((column * BYTE_ONES) >>> 56) << (bit * 8);
+		}
+		return counts;
+	}
+	/**
+	 * Tests that no byte of the counts exceeds the same byte of the limits.
+	 * Every byte of both must be less than 128.
+	 */
+	static boolean fitsUnder(long counts,long limits){
+		return (((limits | BYTE_HIGHS) - counts) & BYTE_HIGHS) == BYTE_HIGHS;
+	}
 	/**
 	 * Tests the column count rule and the occupied cell rule.
 	 */
-	private static boolean testRow(DnDPuzzle puzzle,long walls,int row){
-		for(int x = 0;x < 8;x++){
-			int y = row;
-			if(get(walls, x, y) && puzzle.getCell(x, y) != DnDPuzzle.CELL_EMPTY){
-				return false;
-			}
-			int wallCount = countWallsInColumn(walls, x);
-			int wallTarget = puzzle.getColumn(x);
-			if(wallTarget < wallCount){
-				return false;
-			}
+	static boolean testRow(DnDPuzzle puzzle,long walls,int row){
+		long occupied = puzzle.enemyMask() | puzzle.chestMask();
+		if((walls & rowMask(row) & occupied) != 0){
+			return false;
 		}
-		return true;
+		return fitsUnder(countWallsInColumns(walls), puzzle.columnHeaders());
+	}
+	/**
+	 * Moves each cell one column to the left, dropping the ones which would wrap around into the mask.
+	 * On the 8x8 matrix that is the last column, on a single row of a wider board it is every bit
+	 * outside of the row.
+	 */
+	static long shiftLeft(long c,long wrap){
+		return (c << 1) & ~wrap;
+	}
+	/**
+	 * Moves each cell one column to the right, dropping the ones which would wrap around into the mask.
+	 */
+	static long shiftRight(long c,long wrap){
+		return (c >>> 1) & ~wrap;
+	}
+	/**
+	 * Computes the bits set in exactly one of the four inputs. Given the cells moved onto each of
+	 * their neighbours, these are the places with exactly one set neighbour.
+	 */
+	static long exactlyOne(long a,long b,long c,long d){
+		return (a ^ b ^ c ^ d) & ~(a & b) & ~(c & d);
 	}
 	/**
 	 * Sets each value in the input 8x8 matrix that is adjacent to an already set value.
 	 */
-	private static long spreadOneTile(long c){
-		long lc = (c <<  1) & ~columnMask(7);
+	static long spreadOneTile(long c){
+		long lc = shiftLeft(c, columnMask(7));
 		long uc = (c <<  8);
 		long dc = (c >>> 8);
-		long rc = (c >>> 1) & ~columnMask(0);
+		long rc = shiftRight(c, columnMask(0));
 		return lc | uc | dc | rc;
 	}
 	/**
-	 * Tests the dead end rule.
+	 * Extracts the given row as 8 bits, the leftmost cell being the highest bit.
+	 * Rows outside of the board are all walls.
 	 */
-	private static boolean testDeadEnds(DnDPuzzle puzzle,long walls,int row){
-		for(int x = 0;x < 8;x++){
-			int y = row;
-			if(get(walls, x, y)){
-				continue;
-			}
-			long c = cell(x, y);
-			long w = spreadOneTile(c) & ~c;
-			int exitCount = Long.bitCount(w & ~walls);
-			if(exitCount == 0){
-				return false;
-			}
-			boolean mustBeDeadEnd = puzzle.getCell(x, y) == DnDPuzzle.CELL_ENEMY;
-			if(mustBeDeadEnd != (exitCount == 1)){
-				return false;
-			}
+	static int rowBits(long data,int row){
+		if(row < 0 || 8 <= row){
+			return 0xFF;
 		}
-		return true;
+		return (int)(data >>> ((7 - row) * 8)) & 0xFF;
+	}
+	/**
+	 * Tests the dead end rule.
+	 */
+	static boolean testDeadEnds(DnDPuzzle puzzle,long walls,int row){
+		return testDeadEnds(walls, row, rowBits(puzzle.enemyMask(), row));
+	}
+	/**
+	 * Tests the dead end rule with the enemies of the row already extracted.
+	 */
+	static boolean testDeadEnds(long walls,int row,int enemies){
+		return DnDDeadEndTable.test(
+			rowBits(walls, row - 1),
+			rowBits(walls, row),
+			rowBits(walls, row + 1),
+			enemies);
+	}
+	/**
+	 * Computes the set cells of the input 8x8 matrix that have exactly one set neighbour.
+	 */
+	static long deadEnds(long space){
+		long l = shiftRight(space, columnMask(0));
+		long r = shiftLeft(space, columnMask(7));
+		long u = (space >>> 8);
+		long d = (space <<  8);
+		return exactlyOne(u, d, l, r) & space;
+	}
+	/**
+	 * Computes the set cells of the input 8x8 matrix that have no set neighbour.
+	 */
+	static long exitless(long space){
+		long l = shiftRight(space, columnMask(0));
+		long r = shiftLeft(space, columnMask(7));
+		long u = (space >>> 8);
+		long d = (space <<  8);
+		return space & ~(u | d | l | r);
 	}
 	/**
 	 * Tests the interconnected rule.
 	 */
-	private static boolean testInterconnected(long walls){
+	static boolean testInterconnected(long walls){
 		long space = ~walls;
 		long c = Long.highestOneBit(space);
 		while(true){
@@ -133,101 +228,194 @@ public class DnDSolver {
 	/**
 	 * A matrix with a 3x3 square of set bits at the top left corner.
 	 */
-	private static final long TREASURE_ROOM_MASK    = 0xE0E0E00000000000L;
+	static final long TREASURE_ROOM_MASK    = 0xE0E0E00000000000L;
 	/**
 	 * A matrix with a 2x2 square of set bits at the top left corner.
 	 */
-	private static final long ILLEGAL_CORRIDOR_MASK = 0xC0C0000000000000L;
+	static final long ILLEGAL_CORRIDOR_MASK = 0xC0C0000000000000L;
 	/**
 	 * Computes the locations of the potential walls for the specified treasure room.
 	 */
-	private static long wallMaskForTreasureRoom(long treasureRoom){
+	static long wallMaskForTreasureRoom(long treasureRoom){
 		return spreadOneTile(treasureRoom) & ~treasureRoom;
 	}
+	/**
+	 * Computes the leftmost bits of the 2 cells wide horizontal strips of set bits,
+	 * in rows which wrap around into the mask as in {@link #shiftLeft}.
+	 */
+	static long pairsInRows(long c,long wrap){
+		return c & shiftLeft(c, wrap);
+	}
+	/**
+	 * Computes the leftmost bits of the 3 cells wide horizontal strips of set bits.
+	 */
+	static long triplesInRows(long c,long wrap){
+		return pairsInRows(pairsInRows(c, wrap), wrap);
+	}
+	/**
+	 * Widens the leftmost bits of strips back into the strips of the given length.
+	 */
+	static long strips(long leftmost,int length){
+		long result = leftmost;
+		for(int i = 1;i < length;i++){
+			result |= leftmost >>> i;
+		}
+		return result;
+	}
+	/**
+	 * Computes the top left corners of the 3x3 squares of set bits.
+	 */
+	static long treasureRoomCorners(long space){
+		long h = triplesInRows(space, columnMask(7));
+		return h & (h << 8) & (h << 16);
+	}
+	/**
+	 * Computes the union of the 3x3 squares with the given top left corners.
+	 */
+	static long treasureRooms(long corners){
+		long h = strips(corners, 3);
+		return h | (h >>> 8) | (h >>> 16);
+	}
+	/**
+	 * Computes the top left corners of the 2x2 squares of set bits.
+	 */
+	static long illegalCorridorCorners(long space){
+		long h = pairsInRows(space, columnMask(7));
+		return h & (h << 8);
+	}
 	/**
 	 * Tests the treasure room rule and the no 2x2 spaces rule.
 	 */
-	private static boolean testTreasureAndHallway(DnDPuzzle puzzle,long walls){
+	static boolean testTreasureAndHallway(DnDPuzzle puzzle,long walls){
 		long space = ~walls;
+		long chests = puzzle.chestMask();
 		long treasureRooms = 0L;
-		for(int y = 0;y < 6;y++){
-			for(int x = 0;x < 6;x++){
-				long room = TREASURE_ROOM_MASK >>> offset(x, y);
-				if((space & room) == room){
-					long roomWalls = wallMaskForTreasureRoom(room);
-					int exitCount = Long.bitCount(space & roomWalls);
-					if(exitCount != 1){
-						return false;
-					}
-					int treasureCount = 0;
-					for(int dy = 0;dy < 3;dy++){
-						for(int dx = 0;dx < 3;dx++){
-							if(puzzle.getCell(x + dx, y + dy) == DnDPuzzle.CELL_CHEST){
-								treasureCount++;
-							}
-						}
-					}
-					if(treasureCount != 1){
-						return false;
-					}
-					treasureRooms = treasureRooms | room;
-				}
+		long corners = treasureRoomCorners(space);
+		while(corners != 0){
+			long corner = Long.highestOneBit(corners);
+			corners = corners & ~corner;
+			long room = TREASURE_ROOM_MASK >>> Long.numberOfLeadingZeros(corner);
+			if(Long.bitCount(space & wallMaskForTreasureRoom(room)) != 1){
+				return false;
+			}
+			if(Long.bitCount(chests & room) != 1){
+				return false;
 			}
+			treasureRooms = treasureRooms | room;
 		}
-		for(int y = 0;y < 8;y++){
-			for(int x = 0;x < 8;x++){
-				if(puzzle.getCell(x, y) == DnDPuzzle.CELL_CHEST){
-					if((cell(x,y) & treasureRooms) == 0){
-						return false;
-					}
-				}
+		if((chests & ~treasureRooms) != 0){
+			return false;
+		}
+		return illegalCorridorCorners(space & ~treasureRooms) == 0;
+	}
+	/**
+	 * Tests every rule of the puzzle against a complete wall layout.
+	 */
+	static boolean isSolution(DnDPuzzle puzzle,long walls){
+		for(int row = 0;row < 8;row++){
+			if(Long.bitCount(walls & rowMask(row)) != puzzle.getRow(row)){
+				return false;
 			}
 		}
-		space = space & ~treasureRooms;
-		for(int y = 0;y < 7;y++){
-			for(int x = 0;x < 7;x++){
-				long icm = ILLEGAL_CORRIDOR_MASK >>> offset(x, y);
-				if((space & icm) == icm){
-					return false;
-				}
+		return countWallsInColumns(walls) == puzzle.columnHeaders()
+			&& (walls & (puzzle.enemyMask() | puzzle.chestMask())) == 0
+			&& deadEnds(~walls) == puzzle.enemyMask()
+			&& exitless(~walls) == 0
+			&& testInterconnected(walls)
+			&& testTreasureAndHallway(puzzle, walls);
+	}
+	/**
+	 * Parses a line of 8 header digits.
+	 */
+	static void parseHeaders(String line,byte[] headers){
+		for(int i = 0;i < 8;i++){
+			headers[i] = Byte.parseByte(line.substring(i,i+1));
+		}
+	}
+	/**
+	 * Parses a row of cells. 'X' marks enemies, 'T' marks treasure chests, anything else is empty.
+	 */
+	static void parseCells(String line,int y,byte[] cells){
+		for(int x = 0;x < 8;x++){
+			if(x == line.length()){
+				break;
+			}
+			switch(line.charAt(x)){
+				case 'X':
+				case 'x': cells[offset(x, y)] = DnDPuzzle.CELL_ENEMY; break;
+				case 'T': 
+				case 't': cells[offset(x, y)] = DnDPuzzle.CELL_CHEST; break;
 			}
 		}
-		return true;
 	}
 	private static DnDPuzzle inputDnDPuzzle(PrintStream comm,Scanner sc){
 		byte[] rows = new byte[8];
 		byte[] cols = new byte[8];
 		byte[] cells = new byte[8 * 8];
 		comm.println("Please input the column headers");
-		{
-			String line = sc.nextLine();
-			for(int i = 0;i < 8;i++){
-				cols[i] = Byte.parseByte(line.substring(i,i+1));
-			}
-		}
+		parseHeaders(sc.nextLine(), cols);
 		comm.println("Please input the row headers");
-		{
-			String line = sc.nextLine();
-			for(int i = 0;i < 8;i++){
-				rows[i] = Byte.parseByte(line.substring(i,i+1));
+		parseHeaders(sc.nextLine(), rows);
+		comm.println("Input 8 characters per row. Use 'X' for enemies and 'T' for treasure chests.");
+		for(int y = 0;y < 8;y++){
+			parseCells(sc.nextLine(), y, cells);
+		}
+		return new DnDPuzzle(rows, cols, cells);
+	}
+	/**
+	 * Reads the next puzzle in the layout {@link #inputDnDPuzzle} reads, skipping blank lines before it.
+	 * @return The puzzle, or null at the end of the input.
+	 */
+	static DnDPuzzle readPuzzle(BufferedReader in) throws IOException{
+		String line;
+		do{
+			line = in.readLine();
+			if(line == null){
+				return null;
 			}
+		}while(line.isBlank());
+		byte[] rows = new byte[8];
+		byte[] cols = new byte[8];
+		byte[] cells = new byte[8 * 8];
+		parseHeaders(line, cols);
+		parseHeaders(readLine(in), rows);
+		for(int y = 0;y < 8;y++){
+			parseCells(readLine(in), y, cells);
 		}
-		comm.println("Input 8 characters per row. Use 'X' for enemies and 'T' for treasure chests.");
+		return new DnDPuzzle(rows, cols, cells);
+	}
+	private static String readLine(BufferedReader in) throws IOException{
+		String line = in.readLine();
+		if(line == null){
+			throw new EOFException("Incomplete puzzle");
+		}
+		return line;
+	}
+	/**
+	 * Writes the puzzle in the layout {@link #inputDnDPuzzle} reads: the column headers,
+	 * the row headers, then 8 rows with '.' for empty cells.
+	 */
+	static void writePuzzle(PrintStream out,DnDPuzzle puzzle){
+		StringBuilder sb = new StringBuilder(90);
+		for(int x = 0;x < 8;x++){
+			sb.append(puzzle.getColumn(x));
+		}
+		sb.append(System.lineSeparator());
+		for(int y = 0;y < 8;y++){
+			sb.append(puzzle.getRow(y));
+		}
+		sb.append(System.lineSeparator());
 		for(int y = 0;y < 8;y++){
-			String line = sc.nextLine();
 			for(int x = 0;x < 8;x++){
-				if(x == line.length()){
-					break;
-				}
-				switch(line.charAt(x)){
-					case 'X':
-					case 'x': cells[offset(x, y)] = DnDPuzzle.CELL_ENEMY; break;
-					case 'T': 
-					case 't': cells[offset(x, y)] = DnDPuzzle.CELL_CHEST; break;
+				switch(puzzle.getCell(x, y)){
+					case DnDPuzzle.CELL_ENEMY: sb.append('X'); break;
+					case DnDPuzzle.CELL_CHEST: sb.append('T'); break;
+					default: sb.append('.'); break;
 				}
 			}
+			sb.append(System.lineSeparator());
 		}
-		return new DnDPuzzle(rows, cols, cells);
+		out.print(sb);
 	}
 	private static void printPuzzle(PrintStream out,DnDPuzzle puzzle){
 		out.print(" ");
@@ -248,7 +436,7 @@ public class DnDSolver {
 			out.println();
 		}
 	}
-	private static void printSolution(PrintStream out,long walls){
+	static void printSolution(PrintStream out,long walls){
 		for(int y = 0;y < 8;y++){
 			for(int x = 0;x < 8;x++){
 				out.print(get(walls, x, y) ? '#' : ' ');
@@ -274,7 +462,7 @@ public class DnDSolver {
 		}
 		return LongStream.of(value);
 	}
-	public static void main(String[] atgs){
+	public static void main(String[] atgs) throws IOException{
 		
 		DnDPuzzle puzzle;
 		try(Scanner sc = new Scanner(System.in)){
@@ -283,33 +471,28 @@ public class DnDSolver {
 
 		printPuzzle(System.out, puzzle);
 
-		LongStream solver = LongStream.of(0L).unordered().parallel();
+		OptionalLong result;
+		try(DnDSolutionCache cache = atgs.length == 0 || atgs[0].equals("-") ? null : DnDSolutionCache.open(Path.of(atgs[0]))){
+			DnDIndex index = atgs.length < 2 ? null : DnDIndex.open(Path.of(atgs[1]));
 
-		for(int row = 0;row < 8;row++){
-			final int finalRow = row;
-			final int[] cf = CONFIG_ARRAY[puzzle.getRow(row)];
-			final int offset = (7 - row) * 8;
-			solver = solver.flatMap(l ->
-				StreamSupport.intStream(Spliterators.spliterator(cf,CONFIG_ARRAY_CHARACTERISTICS),false)
-				.unordered()
-				.mapToLong(r -> l | (((long)r) << offset))
-			);
+			result = cache == null ? null : cache.get(puzzle);
 
-			solver = solver.filter(k -> testRow(puzzle, k, finalRow));
-
-			if(0 < row){
-				solver = solver.filter(k -> testDeadEnds(puzzle, k, finalRow - 1));
-			}
-		}
-		solver = solver.filter(k -> testDeadEnds(puzzle, k, 7));
-
-		solver = solver.filter(l -> testInterconnected(l));
+			if(result != null){
+				System.out.println("Found in cache.");
+			}else if(index != null && (result = index.lookup(puzzle)).isPresent()){
+				System.out.println("Found in index.");
+			}else{
+				DnDSearch search = new DnDSearch(puzzle, DnDSearch.DEFAULT_STAGES);
 
-		solver = solver.filter(l -> testTreasureAndHallway(puzzle, l));
+				result = search.solve();
 
-		OptionalLong result = solver.findAny();
+				System.out.print(search.statistics());
 
-		solver.close();
+				if(cache != null){
+					cache.put(puzzle, result);
+				}
+			}
+		}
 
 		if(result.isPresent()){
 			long solution = result.getAsLong();
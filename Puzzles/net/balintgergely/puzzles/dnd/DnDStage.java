@@ -0,0 +1,49 @@
+package net.balintgergely.puzzles.dnd;
+
+/**
+ * An additional rule which {@link DnDSearch} checks every time a row is placed.
+ * <p>
+ * A stage belongs to a single search and may keep state for each row. Rows are placed in order,
+ * so when row r is tested, the state kept for row r - 1 describes the current partial layout.
+ */
+public abstract class DnDStage {
+	private final String name;
+	private long tested;
+	private long cut;
+	protected DnDStage(String name){
+		this.name = name;
+	}
+	/**
+	 * Tests the partial layout right after the given row was placed.
+	 * @param walls The layout with the rows up to and including the given one placed.
+	 * @return False if no complete layout with these rows can be a solution.
+	 */
+	protected abstract boolean test(long walls,int row);
+	final boolean apply(long walls,int row){
+		tested++;
+		if(test(walls, row)){
+			return true;
+		}
+		cut++;
+		return false;
+	}
+	public String name(){
+		return name;
+	}
+	/**
+	 * The number of partial layouts this stage was asked about.
+	 */
+	public long tested(){
+		return tested;
+	}
+	/**
+	 * The number of partial layouts this stage rejected.
+	 */
+	public long cut(){
+		return cut;
+	}
+	@Override
+	public String toString(){
+		return name + ": cut " + cut + " of " + tested;
+	}
+}
@@ -0,0 +1,95 @@
+package net.balintgergely.puzzles.dnd;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Counters describing a search: the partial layouts generated for each row,
+ * the layouts each rule cut, and the time it took.
+ * <p>
+ * Every search thread counts into its own plain fields, which are only turned into statistics
+ * and merged once the thread is done with its part of the search.
+ */
+public final class DnDStatistics {
+	public static final String
+		RULE_OCCUPIED = "Occupied cell",
+		RULE_PROPAGATION = "Propagation",
+		RULE_COLUMNS = "Column count",
+		RULE_DEAD_ENDS = "Dead end",
+		RULE_INTERCONNECTED = "Interconnected",
+		RULE_TREASURE_AND_HALLWAY = "Treasure and hallway (complete)";
+	private final long[] nodesPerRow = new long[8];
+	private final LinkedHashMap<String,Long> cuts = new LinkedHashMap<>();
+	private long solutions;
+	private long wallNanos;
+	DnDStatistics(){}
+	void addNodes(int row,long count){
+		nodesPerRow[row] += count;
+	}
+	void addCuts(String rule,long count){
+		cuts.merge(rule, count, Long::sum);
+	}
+	void addSolutions(long count){
+		solutions += count;
+	}
+	void setWallNanos(long wallNanos){
+		this.wallNanos = wallNanos;
+	}
+	/**
+	 * Adds the counters of the other statistics to these. The wall time is not added.
+	 */
+	void add(DnDStatistics that){
+		for(int row = 0;row < 8;row++){
+			nodesPerRow[row] += that.nodesPerRow[row];
+		}
+		that.cuts.forEach(this::addCuts);
+		solutions += that.solutions;
+	}
+	/**
+	 * The number of partial layouts generated, in all rows.
+	 */
+	public long nodes(){
+		long total = 0;
+		for(long n : nodesPerRow){
+			total += n;
+		}
+		return total;
+	}
+	/**
+	 * The number of partial layouts generated by placing the given row.
+	 * Rows are counted in the order the search placed them, see {@link DnDSearch#orientationFor}.
+	 */
+	public long nodes(int row){
+		return nodesPerRow[row];
+	}
+	/**
+	 * The number of partial layouts cut by each rule, in the order the rules are checked.
+	 */
+	public Map<String,Long> cuts(){
+		return Collections.unmodifiableMap(cuts);
+	}
+	/**
+	 * The number of solutions found.
+	 */
+	public long solutions(){
+		return solutions;
+	}
+	public long wallNanos(){
+		return wallNanos;
+	}
+	public double nodesPerSecond(){
+		return wallNanos == 0 ? 0 : nodes() * 1e9 / wallNanos;
+	}
+	@Override
+	public String toString(){
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%d nodes in %.3f ms (%.0f nodes/s), %d solutions%n",
+			nodes(), wallNanos / 1e6, nodesPerSecond(), solutions));
+		for(int row = 0;row < 8;row++){
+			sb.append(String.format("  Row %d: %d nodes%n", row, nodesPerRow[row]));
+		}
+		cuts.forEach((rule, count) -> sb.append(String.format("  %s: cut %d%n", rule, count)));
+		return sb.toString();
+	}
+}
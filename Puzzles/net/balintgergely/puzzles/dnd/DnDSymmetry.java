@@ -0,0 +1,125 @@
+package net.balintgergely.puzzles.dnd;
+
+/**
+ * The symmetries of the board. All rules are invariant under them, so a puzzle can be solved
+ * in any of its transformed forms and the solution mapped back.
+ * <p>
+ * Each symmetry first transposes the board if needed, then mirrors it left to right,
+ * then flips it upside down.
+ */
+public enum DnDSymmetry {
+	IDENTITY(false, false, false),
+	MIRROR_HORIZONTAL(false, true, false),
+	FLIP_VERTICAL(false, false, true),
+	ROTATE_180(false, true, true),
+	TRANSPOSE(true, false, false),
+	ROTATE_CLOCKWISE(true, true, false),
+	ROTATE_COUNTERCLOCKWISE(true, false, true),
+	ANTI_TRANSPOSE(true, true, true);
+	private final boolean transpose;
+	private final boolean mirror;
+	private final boolean flip;
+	private DnDSymmetry(boolean transpose,boolean mirror,boolean flip){
+		this.transpose = transpose;
+		this.mirror = mirror;
+		this.flip = flip;
+	}
+	/**
+	 * Swaps the rows and columns of an 8x8 matrix.
+	 */
+	static long transpose(long data){
+		long t;
+		t = 0x0F0F0F0F00000000L & (data ^ (data << 28));
+		data ^= t ^ (t >>> 28);
+		t = 0x3333000033330000L & (data ^ (data << 14));
+		data ^= t ^ (t >>> 14);
+		t = 0x5500550055005500L & (data ^ (data << 7));
+		data ^= t ^ (t >>> 7);
+		return data;
+	}
+	/**
+	 * Reverses the order of the columns of an 8x8 matrix.
+	 */
+	static long mirrorHorizontal(long data){
+		data = ((data >>> 1) & 0x5555555555555555L) | ((data & 0x5555555555555555L) << 1);
+		data = ((data >>> 2) & 0x3333333333333333L) | ((data & 0x3333333333333333L) << 2);
+		data = ((data >>> 4) & 0x0F0F0F0F0F0F0F0FL) | ((data & 0x0F0F0F0F0F0F0F0FL) << 4);
+		return data;
+	}
+	/**
+	 * Reverses the order of the rows of an 8x8 matrix.
+	 */
+	static long flipVertical(long data){
+		return Long.reverseBytes(data);
+	}
+	private static byte[] reverse(byte[] array){
+		byte[] result = new byte[array.length];
+		for(int i = 0;i < array.length;i++){
+			result[i] = array[array.length - 1 - i];
+		}
+		return result;
+	}
+	/**
+	 * Transforms a matrix in the bit layout used by {@link DnDSolver}.
+	 */
+	public long apply(long data){
+		if(transpose){
+			data = transpose(data);
+		}
+		if(mirror){
+			data = mirrorHorizontal(data);
+		}
+		if(flip){
+			data = flipVertical(data);
+		}
+		return data;
+	}
+	/**
+	 * Undoes {@link #apply(long)}.
+	 */
+	public long invert(long data){
+		if(flip){
+			data = flipVertical(data);
+		}
+		if(mirror){
+			data = mirrorHorizontal(data);
+		}
+		if(transpose){
+			data = transpose(data);
+		}
+		return data;
+	}
+	/**
+	 * The row headers of the transformed puzzle, packed like {@link DnDPuzzle#rowHeaders()}.
+	 */
+	public long rowHeaders(DnDPuzzle puzzle){
+		long headers = transpose ? puzzle.columnHeaders() : puzzle.rowHeaders();
+		return flip ? Long.reverseBytes(headers) : headers;
+	}
+	/**
+	 * Transforms a puzzle. The solutions of the result are the transformed solutions of the original.
+	 */
+	public DnDPuzzle apply(DnDPuzzle puzzle){
+		if(this == IDENTITY){
+			return puzzle;
+		}
+		byte[] rows = new byte[8];
+		byte[] columns = new byte[8];
+		for(int i = 0;i < 8;i++){
+			rows[i] = puzzle.getRow(i);
+			columns[i] = puzzle.getColumn(i);
+		}
+		if(transpose){
+			byte[] t = rows;
+			rows = columns;
+			columns = t;
+		}
+		if(mirror){
+			columns = reverse(columns);
+		}
+		if(flip){
+			rows = reverse(rows);
+		}
+		return DnDPuzzle.of(rows, columns, apply(puzzle.enemyMask()), apply(puzzle.chestMask()));
+	}
+}
@@ -0,0 +1,47 @@
+package net.balintgergely.puzzles.dnd;
+
+import static net.balintgergely.puzzles.dnd.DnDSolver.*;
+
+/**
+ * Checks the treasure room rule and the no 2x2 spaces rule while the rows are being placed.
+ * <p>
+ * Treating the rows not yet placed as open gives every 3x3 square which may still become
+ * a treasure room. Chests outside of all of them, and 2x2 spaces in the placed rows outside
+ * of all of them, can never be fixed. Rooms whose rows are all placed are real rooms,
+ * so their chests are counted right away, and their exits as soon as the surrounding rows are placed.
+ */
+public class DnDTreasureStage extends DnDStage {
+	private final long chests;
+	public DnDTreasureStage(DnDPuzzle puzzle){
+		super("Treasure and hallway");
+		this.chests = puzzle.chestMask();
+	}
+	@Override
+	protected boolean test(long walls,int row){
+		long space = ~walls;
+		long known = rowsUpTo(row);
+		long corners = treasureRoomCorners(space);
+		long rooms = treasureRooms(corners);
+		if((chests & ~rooms) != 0){
+			return false;
+		}
+		if(illegalCorridorCorners(space & known & ~rooms) != 0){
+			return false;
+		}
+		long completed = corners & rowsUpTo(row - 2) & ~rowsUpTo(row - 4);
+		while(completed != 0){
+			long corner = Long.highestOneBit(completed);
+			completed = completed & ~corner;
+			long room = TREASURE_ROOM_MASK >>> Long.numberOfLeadingZeros(corner);
+			long roomWalls = wallMaskForTreasureRoom(room);
+			int exitCount = Long.bitCount(space & roomWalls & known);
+			if(1 < exitCount || ((roomWalls & ~known) == 0 && exitCount == 0)){
+				return false;
+			}
+			if(Long.bitCount(chests & room) != 1){
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,152 @@
+package net.balintgergely.puzzles.dnd;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the rules of {@link DnDSolver} and complete solves over a fixed corpus.
+ * <p>
+ * The puzzles were made by {@link DnDGenerator} and picked by the number of nodes
+ * the search needs to prove their solution unique. The rules are measured on the solution,
+ * which they all accept, so every check runs to the end.
+ * <p>
+ * The parallel search is measured in pools of 1 to 32 threads, counting every solution,
+ * so the whole tree is searched.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DnDBenchmark {
+	private static final Map<String,String> CORPUS = Map.of(
+		"easy", String.join("\n",
+			"55577555",
+			"88888202",
+			"........",
+			"........",
+			"........",
+			"........",
+			"........",
+			"........",
+			"T.......",
+			".......T"),
+		"medium", String.join("\n",
+			"85557421",
+			"55577323",
+			"........",
+			".......T",
+			"........",
+			"........",
+			"........",
+			"........",
+			".T......",
+			".......X"),
+		"hard", String.join("\n",
+			"14243232",
+			"14232504",
+			"X.......",
+			"........",
+			"........",
+			"........",
+			".....T..",
+			"...X...X",
+			"........",
+			"X..X.X.X")
+	);
+	@Param({"easy", "medium", "hard"})
+	public String difficulty;
+	@State(Scope.Benchmark)
+	public static class Pool {
+		@Param({"1", "2", "4", "8", "16", "32"})
+		public int parallelism;
+		private ForkJoinPool pool;
+		@Setup
+		public void setup(){
+			pool = new ForkJoinPool(parallelism);
+		}
+		@TearDown
+		public void tearDown(){
+			pool.shutdown();
+		}
+	}
+	private DnDPuzzle puzzle;
+	private long solution;
+	private int column;
+	@Setup
+	public void setup() throws IOException{
+		puzzle = DnDSolver.readPuzzle(new BufferedReader(new StringReader(CORPUS.get(difficulty))));
+		solution = DnDSearch.solve(puzzle).orElseThrow();
+		column = 3;
+	}
+	@Benchmark
+	public byte countWallsInColumn(){
+		return DnDSolver.countWallsInColumn(solution, column);
+	}
+	@Benchmark
+	public long spreadOneTile(){
+		return DnDSolver.spreadOneTile(solution);
+	}
+	@Benchmark
+	public void testRow(Blackhole bh){
+		for(int row = 0;row < 8;row++){
+			bh.consume(DnDSolver.testRow(puzzle, solution, row));
+		}
+	}
+	@Benchmark
+	public void testDeadEnds(Blackhole bh){
+		for(int row = 0;row < 8;row++){
+			bh.consume(DnDSolver.testDeadEnds(puzzle, solution, row));
+		}
+	}
+	@Benchmark
+	public boolean testInterconnected(){
+		return DnDSolver.testInterconnected(solution);
+	}
+	@Benchmark
+	public boolean testTreasureAndHallway(){
+		return DnDSolver.testTreasureAndHallway(puzzle, solution);
+	}
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public OptionalLong solve(){
+		return DnDSearch.solve(puzzle);
+	}
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public long proveUnique(){
+		return new DnDSearch(puzzle, DnDSearch.DEFAULT_STAGES).countSolutions(2);
+	}
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public long countSolutions(Pool pool) throws InterruptedException, ExecutionException{
+		return pool.pool.submit(() -> DnDSearch.countSolutions(puzzle, Long.MAX_VALUE)).get();
+	}
+	public static void main(String[] atgs) throws RunnerException{
+		new Runner(new OptionsBuilder().include(DnDBenchmark.class.getSimpleName()).build()).run();
+	}
+}
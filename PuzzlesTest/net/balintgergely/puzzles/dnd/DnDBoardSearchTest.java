@@ -0,0 +1,197 @@
+package net.balintgergely.puzzles.dnd;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+/**
+ * Checks {@link DnDBoardSearch} against a brute force count of the solutions, on boards which are
+ * neither square nor 8x8, and against {@link DnDSearch} on 8x8 boards.
+ * <p>
+ * The brute force tries every row with the right number of walls and checks the complete layouts
+ * with {@link DnDBoardPuzzle#isSolution}, so it shares none of the pruning of the search.
+ */
+public class DnDBoardSearchTest {
+	private static final int[][] SIZES = {{3, 5}, {5, 3}, {4, 6}, {6, 4}, {5, 6}, {6, 5}, {7, 4}, {4, 7}, {9, 3}, {3, 9}};
+	private static final int PUZZLES_PER_SIZE = 40;
+	private static void check(boolean condition,String message){
+		if(!condition){
+			throw new AssertionError(message);
+		}
+	}
+	/**
+	 * A maze of open cells on the even coordinates, joined by a random spanning tree,
+	 * with a 3x3 room cut into it now and then.
+	 */
+	static DnDBoard maze(Random random,int width,int height){
+		DnDBoard walls = new DnDBoard(width, height);
+		for(int y = 0;y < height;y++){
+			for(int x = 0;x < width;x++){
+				walls.set(x, y, true);
+			}
+		}
+		Deque<int[]> stack = new ArrayDeque<>();
+		stack.push(new int[]{0, 0});
+		walls.set(0, 0, false);
+		while(!stack.isEmpty()){
+			int[] current = stack.peek();
+			List<int[]> next = new ArrayList<>();
+			for(int[] d : new int[][]{{2, 0}, {-2, 0}, {0, 2}, {0, -2}}){
+				int x = current[0] + d[0];
+				int y = current[1] + d[1];
+				if(0 <= x && 0 <= y && x < width && y < height && walls.get(x, y)){
+					next.add(new int[]{x, y});
+				}
+			}
+			if(next.isEmpty()){
+				stack.pop();
+				continue;
+			}
+			int[] chosen = next.get(random.nextInt(next.size()));
+			walls.set((current[0] + chosen[0]) / 2, (current[1] + chosen[1]) / 2, false);
+			walls.set(chosen[0], chosen[1], false);
+			stack.push(chosen);
+		}
+		if(random.nextBoolean()){
+			int left = random.nextInt(width - 2);
+			int top = random.nextInt(height - 2);
+			for(int i = 0;i < 9;i++){
+				walls.set(left + i % 3, top + i / 3, false);
+			}
+		}
+		return walls;
+	}
+	/**
+	 * Random walls, which mostly give puzzles without solutions.
+	 */
+	static DnDBoard noise(Random random,int width,int height){
+		DnDBoard walls = new DnDBoard(width, height);
+		for(int y = 0;y < height;y++){
+			for(int x = 0;x < width;x++){
+				walls.set(x, y, random.nextInt(5) < 2);
+			}
+		}
+		return walls;
+	}
+	/**
+	 * The puzzle with the headers of the walls, enemies on their dead ends,
+	 * and a chest in the first open 3x3 square, if any.
+	 */
+	static DnDBoardPuzzle puzzle(Random random,DnDBoard walls){
+		int width = walls.width();
+		int height = walls.height();
+		long full = DnDBoard.fullRow(width);
+		long[] space = new long[height];
+		for(int y = 0;y < height;y++){
+			space[y] = full & ~walls.row(y);
+		}
+		DnDBoard enemies = new DnDBoard(width, height);
+		DnDBoard chests = new DnDBoard(width, height);
+		for(int y = 0;y < height;y++){
+			long deadEnds = DnDBoard.deadEnds(0 < y ? space[y - 1] : 0L, space[y], y + 1 < height ? space[y + 1] : 0L, full);
+			for(int x = 0;x < width;x++){
+				enemies.set(x, y, (deadEnds & DnDBoard.cell(width, x)) != 0);
+			}
+		}
+		search:
+		for(int y = 0;y + 2 < height;y++){
+			for(int x = 0;x + 2 < width;x++){
+				boolean open = true;
+				for(int i = 0;i < 9;i++){
+					open &= !walls.get(x + i % 3, y + i / 3);
+				}
+				if(open){
+					chests.set(x + random.nextInt(3), y + random.nextInt(3), true);
+					break search;
+				}
+			}
+		}
+		return DnDBoardPuzzle.of(walls, enemies, chests);
+	}
+	private static boolean hasChest(DnDBoardPuzzle puzzle){
+		for(int y = 0;y < puzzle.height();y++){
+			for(int x = 0;x < puzzle.width();x++){
+				if(puzzle.isChest(x, y)){
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+	/**
+	 * Counts the solutions by trying every row with the right number of walls.
+	 */
+	static long bruteForce(DnDBoardPuzzle puzzle){
+		return bruteForce(puzzle, new DnDBoard(puzzle.width(), puzzle.height()), 0, new int[puzzle.width()]);
+	}
+	private static long bruteForce(DnDBoardPuzzle puzzle,DnDBoard walls,int y,int[] columns){
+		int width = puzzle.width();
+		if(y == puzzle.height()){
+			return puzzle.isSolution(walls) ? 1 : 0;
+		}
+		long count = 0;
+		for(int row = 0;row < 1 << width;row++){
+			if(Integer.bitCount(row) != puzzle.getRow(y)){
+				continue;
+			}
+			boolean fits = true;
+			for(int x = 0;x < width;x++){
+				boolean wall = (row & (1 << (width - 1 - x))) != 0;
+				walls.set(x, y, wall);
+				if(wall && ++columns[x] > puzzle.getColumn(x)){
+					fits = false;
+				}
+			}
+			if(fits){
+				count += bruteForce(puzzle, walls, y + 1, columns);
+			}
+			for(int x = 0;x < width;x++){
+				if(walls.get(x, y)){
+					columns[x]--;
+				}
+			}
+		}
+		return count;
+	}
+	public static void main(String[] atgs){
+		Random random = new Random(0x426F617264L);
+		int solvable = 0;
+		int withChests = 0;
+		for(int[] size : SIZES){
+			for(int i = 0;i < PUZZLES_PER_SIZE;i++){
+				DnDBoard walls = i % 2 == 0 ? maze(random, size[0], size[1]) : noise(random, size[0], size[1]);
+				DnDBoardPuzzle puzzle = puzzle(random, walls);
+				long expected = bruteForce(puzzle);
+				long found = new DnDBoardSearch(puzzle).countSolutions(Long.MAX_VALUE);
+				check(found == expected, size[0] + "x" + size[1] + " puzzle " + i + ": expected "
+					+ expected + " solutions, found " + found + System.lineSeparator() + walls);
+				Optional<DnDBoard> solution = new DnDBoardSearch(puzzle).solve();
+				check(solution.isPresent() == (expected != 0) && solution.map(puzzle::isSolution).orElse(true),
+					size[0] + "x" + size[1] + " puzzle " + i + ": bad solution");
+				if(expected != 0){
+					solvable++;
+					if(hasChest(puzzle)){
+						withChests++;
+					}
+				}
+			}
+		}
+		check(withChests != 0, "No solvable puzzles with chests generated");
+		DnDGenerator generator = new DnDGenerator(new SplittableRandom(0x426F617264L));
+		for(int i = 0;i < PUZZLES_PER_SIZE;i++){
+			DnDPuzzle puzzle = generator.dungeon();
+			if(puzzle == null){
+				continue;
+			}
+			long expected = new DnDSearch(puzzle, DnDSearch.DEFAULT_STAGES).countSolutions(Long.MAX_VALUE);
+			long found = new DnDBoardSearch(DnDBoardPuzzle.of(puzzle)).countSolutions(Long.MAX_VALUE);
+			check(found == expected, "8x8 puzzle " + i + ": expected " + expected + " solutions, found " + found);
+		}
+		System.out.println("DnDBoardSearchTest passed, " + solvable + " of " + SIZES.length * PUZZLES_PER_SIZE
+			+ " small puzzles solvable, " + withChests + " of them with a chest");
+	}
+}
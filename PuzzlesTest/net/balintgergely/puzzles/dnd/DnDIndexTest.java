@@ -0,0 +1,68 @@
+package net.balintgergely.puzzles.dnd;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+
+/**
+ * Checks that {@link DnDService} and {@link DnDIndex} answer indexed puzzles from the index,
+ * and fall back to the search for the puzzles the index misses.
+ */
+public class DnDIndexTest {
+	private static void check(boolean condition,String message){
+		if(!condition){
+			throw new AssertionError(message);
+		}
+	}
+	/**
+	 * The puzzle as a single line request of {@link DnDService}.
+	 */
+	static String request(DnDPuzzle puzzle){
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		DnDSolver.writePuzzle(new PrintStream(out, true), puzzle);
+		return out.toString().trim().replaceAll("\\s+", " ");
+	}
+	public static void main(String[] atgs) throws Exception{
+		DnDGenerator generator = new DnDGenerator(new SplittableRandom(0x496E646578L));
+		DnDPuzzle indexed = generator.next();
+		DnDPuzzle missing = generator.next();
+		byte[] rows = new byte[8];
+		byte[] columns = new byte[8];
+		for(int i = 0;i < 8;i++){
+			rows[i] = indexed.getRow(i);
+			columns[i] = indexed.getColumn(i);
+		}
+		DnDPuzzle sameHeaders = DnDPuzzle.of(rows, columns, 0L, 0L);
+
+		Path corpus = Files.createTempFile("dnd", ".txt");
+		Path file = Files.createTempFile("dnd", ".index");
+		try{
+			try(PrintStream out = new PrintStream(Files.newOutputStream(corpus))){
+				DnDSolver.writePuzzle(out, indexed);
+			}
+			DnDIndex.main(new String[]{file.toString(), corpus.toString()});
+			DnDIndex index = DnDIndex.open(file);
+
+			check(index.lookup(indexed).isPresent(), "Indexed puzzle not found");
+			check(index.lookup(missing).isEmpty(), "Puzzle outside the corpus found");
+			check(index.candidates(sameHeaders).length != 0, "No candidates for the same headers");
+			check(index.lookup(sameHeaders).isEmpty(), "Layout without the enemies accepted");
+
+			DnDService searching = new DnDService();
+			DnDService service = new DnDService(index);
+			for(DnDPuzzle puzzle : new DnDPuzzle[]{indexed, missing, sameHeaders}){
+				String expected = searching.handle(request(puzzle));
+				String answer = service.handle(request(puzzle));
+				check(answer.equals(expected), "Expected " + expected + ", got " + answer);
+			}
+			check(service.handle(request(indexed)).startsWith("SOLVED "), "Indexed puzzle not solved");
+			check(service.handle(request(missing)).startsWith("SOLVED "), "Missed puzzle not solved");
+		}finally{
+			Files.deleteIfExists(corpus);
+			Files.deleteIfExists(file);
+		}
+		System.out.println("DnDIndexTest passed");
+	}
+}
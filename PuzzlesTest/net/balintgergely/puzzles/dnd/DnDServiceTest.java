@@ -0,0 +1,34 @@
+package net.balintgergely.puzzles.dnd;
+
+import java.util.SplittableRandom;
+
+/**
+ * Checks that {@link DnDService} answers truncated requests with {@code ERROR} and a message.
+ */
+public class DnDServiceTest {
+	private static void check(boolean condition,String message){
+		if(!condition){
+			throw new AssertionError(message);
+		}
+	}
+	private static void checkError(DnDService service,String request){
+		String answer = service.handle(request);
+		check(answer.startsWith("ERROR "), "Expected an error for \"" + request + "\", got " + answer);
+		String message = answer.substring("ERROR ".length());
+		check(!message.isBlank() && !message.equals("null"), "No message for \"" + request + "\": " + answer);
+	}
+	public static void main(String[] atgs){
+		DnDService service = new DnDService();
+		String request = DnDIndexTest.request(new DnDGenerator(new SplittableRandom(0x5365727669L)).next());
+		check(service.handle(request).startsWith("SOLVED "), "Generated puzzle not solved");
+		int requests = 0;
+		for(int end = request.indexOf(' ');end >= 0;end = request.indexOf(' ', end + 1)){
+			checkError(service, request.substring(0, end));
+			requests++;
+		}
+		checkError(service, "");
+		checkError(service, request.substring(0, 7));
+		checkError(service, request.substring(0, 16));
+		System.out.println("DnDServiceTest passed, " + (requests + 3) + " truncated requests");
+	}
+}
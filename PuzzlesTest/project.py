@@ -0,0 +1,5 @@
+from mounter.languages.java import JavaProject
+import Puzzles.project as Puzzles
+
+def manifest():
+	return JavaProject(__file__,Puzzles)
\ No newline at end of file